@@ -0,0 +1,44 @@
+package com.github.taganaka.chip8j.bench;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.host.HeadlessIOHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instructions per second for each opcode family, interpreted and recompiled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpcodeBenchmark {
+
+    static final int INSTRUCTIONS = 10000;
+
+    @Param({"ALU", "DRAW", "MEMORY", "BRANCH"})
+    public String family;
+
+    @Param({"false", "true"})
+    public boolean recompiler;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() throws IOException {
+        chip = new Chip(new HeadlessIOHandler(), 1);
+        chip.setRecompilerEnabled(recompiler);
+        chip.loadROM(Programs.write(Programs.byName(family)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public long execute() {
+        chip.execute(INSTRUCTIONS);
+        return chip.getCycles();
+    }
+}
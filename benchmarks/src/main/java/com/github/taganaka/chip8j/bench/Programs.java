@@ -0,0 +1,85 @@
+package com.github.taganaka.chip8j.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Small looping programs exercising one opcode family each, and access to the bundled ROMs.
+ */
+final class Programs {
+
+    // 8XYn arithmetic and logic
+    static final int[] ALU = {
+            0x6005, 0x6103,                         // 200: V0 = 5, V1 = 3
+            0x8014, 0x8125, 0x8011, 0x8232,         // 204: loop
+            0x8123, 0x8016, 0x801E, 0x7107,
+            0x1204
+    };
+
+    // DXYN sprite drawing, moving the sprite around the screen
+    static final int[] DRAW = {
+            0xA20C,                                 // 200: I = sprite
+            0xD015, 0x7003, 0x7101, 0x1202,         // 202: loop
+            0x0000,
+            0xF090, 0xF090, 0xF000                  // 20C: sprite
+    };
+
+    // FX55 / FX65 register dumps and loads
+    static final int[] MEMORY = {
+            0xA300, 0xF555, 0xA300, 0xF565,         // 200: loop
+            0x1200
+    };
+
+    // Skips, calls, returns and jumps
+    static final int[] BRANCH = {
+            0x3000, 0x1200,                         // 200: skipped
+            0x4001, 0x1200,                         // 204: skipped
+            0x5010, 0x1200,                         // 208: skipped
+            0x9010, 0x2212,                         // 20C: not skipped, call
+            0x1200,                                 // 210: back to start
+            0x00EE                                  // 212: return
+    };
+
+    private Programs(){
+    }
+
+    static int[] byName(String family){
+        if ("ALU".equals(family))
+            return ALU;
+        if ("DRAW".equals(family))
+            return DRAW;
+        if ("MEMORY".equals(family))
+            return MEMORY;
+        if ("BRANCH".equals(family))
+            return BRANCH;
+        throw new IllegalArgumentException("Unknown opcode family: " + family);
+    }
+
+    /**
+     * Writes the program as a ROM file and returns its path.
+     */
+    static String write(int[] program) throws IOException {
+        byte[] bytes = new byte[program.length * 2];
+        for (int i = 0; i < program.length; i++) {
+            bytes[i * 2]     = (byte)(program[i] >> 8);
+            bytes[i * 2 + 1] = (byte)program[i];
+        }
+        Path rom = Files.createTempFile("chip8j-bench", ".ch8");
+        rom.toFile().deleteOnExit();
+        Files.write(rom, bytes);
+        return rom.toString();
+    }
+
+    /**
+     * Path of a bundled ROM: looked up in the chip8j.roms directory, then in roms/ and ../roms/.
+     */
+    static String rom(String name){
+        String dir = System.getProperty("chip8j.roms");
+        if (dir != null)
+            return new File(dir, name).getPath();
+        File local = new File("roms", name);
+        return local.exists() ? local.getPath() : new File("../roms", name).getPath();
+    }
+}
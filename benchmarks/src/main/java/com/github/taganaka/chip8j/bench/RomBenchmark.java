@@ -0,0 +1,61 @@
+package com.github.taganaka.chip8j.bench;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.host.HeadlessIOHandler;
+import com.github.taganaka.chip8j.host.Scheduler;
+import com.github.taganaka.chip8j.host.UnthrottledPacer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-ROM throughput in instructions per second, with the timers ticking at
+ * 60Hz of emulated time and a fixed key script played back on the keypad.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RomBenchmark {
+
+    static final int CYCLES = 100000;
+
+    // Keypad masks held for SCRIPT_TICKS timer ticks each: movement and fire keys of the bundled games
+    static final int[] SCRIPT = { 0x0010, 0x0000, 0x0040, 0x0020, 0x1000, 0x0002, 0x0000, 0x2000 };
+    static final int SCRIPT_TICKS = 15;
+
+    @Param({"PONG", "BRIX", "INVADERS", "TETRIS"})
+    public String rom;
+
+    @Param({"false", "true"})
+    public boolean recompiler;
+
+    private Chip chip;
+    private Scheduler scheduler;
+
+    @Setup
+    public void setup() throws IOException {
+        chip = new Chip(new HeadlessIOHandler(), 1);
+        chip.setRecompilerEnabled(recompiler);
+        chip.loadROM(Programs.rom(rom));
+        scheduler = new Scheduler(chip, new UnthrottledPacer());
+        scheduler.setTickListener(new Scheduler.TickListener() {
+            private long ticks;
+
+            @Override
+            public void onTick(Chip chip) {
+                chip.keypad().setMask(SCRIPT[(int)(ticks++ / SCRIPT_TICKS % SCRIPT.length)]);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public long run() {
+        scheduler.runCycles(CYCLES);
+        return chip.getCycles();
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * A straight-line run of instructions compiled into a single JVM method by {@link Recompiler}.
+ * Executing a block has the same effect as stepping through its instructions one at a time.
+ */
+abstract class Block {
+
+    // Decoded instructions covered by the block, used by the generated code for the non-inlined ones
+    final Instruction[] ops;
+    // First address covered by the block
+    final int start;
+    // First address after the block
+    final int end;
+    // Instructions per opcode family, for the counters
+    final int[] families;
+
+    protected Block(Instruction[] ops, int start, int end){
+        this.ops   = ops;
+        this.start = start;
+        this.end   = end;
+        this.families = Counters.families(ops);
+    }
+
+    int length(){
+        return ops.length;
+    }
+
+    abstract void execute(Chip c);
+}
@@ -0,0 +1,311 @@
+package com.github.taganaka.chip8j.chip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates one JVM class per basic block.
+ *
+ * Simple register and index operations (6XNN, 7XNN, 8XY0-8XY3, ANNN) are emitted as
+ * plain field and array accesses on the {@link Chip} state. Every other instruction is
+ * called through its decoded handler, with the program counter set beforehand so the
+ * handler behaves exactly as it does under the interpreter.
+ *
+ * Classes are written by hand (no bytecode library) and defined as hidden classes
+ * in this package, so they can reach the package-private state and be unloaded
+ * once their block is invalidated.
+ */
+final class BlockCompiler {
+
+    private static final String CHIP        = "com/github/taganaka/chip8j/chip/Chip";
+    private static final String BLOCK       = "com/github/taganaka/chip8j/chip/Block";
+    private static final String INSTRUCTION = "com/github/taganaka/chip8j/chip/Instruction";
+    private static final String NAME        = "com/github/taganaka/chip8j/chip/CompiledBlock";
+
+    private static final String OPS_DESC  = "[L" + INSTRUCTION + ";";
+    private static final String CTOR_DESC = "(" + OPS_DESC + "II)V";
+
+    // Opcodes used by the generated code
+    private static final int ALOAD_0       = 0x2A;
+    private static final int ALOAD_1       = 0x2B;
+    private static final int ALOAD_2       = 0x2C;
+    private static final int ILOAD_2       = 0x1C;
+    private static final int ILOAD_3       = 0x1D;
+    private static final int ASTORE_2      = 0x4D;
+    private static final int ICONST_0      = 0x03;
+    private static final int BIPUSH        = 0x10;
+    private static final int SIPUSH        = 0x11;
+    private static final int AALOAD        = 0x32;
+    private static final int BALOAD        = 0x33;
+    private static final int BASTORE       = 0x54;
+    private static final int DUP2          = 0x5C;
+    private static final int IADD          = 0x60;
+    private static final int IAND          = 0x7E;
+    private static final int IOR           = 0x80;
+    private static final int IXOR          = 0x82;
+    private static final int RETURN        = 0xB1;
+    private static final int GETFIELD      = 0xB4;
+    private static final int PUTFIELD      = 0xB5;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private BlockCompiler(){
+    }
+
+    /**
+     * Compiles the given instructions, starting at <code>start</code>, into a new block.
+     */
+    static Block compile(Instruction[] ops, int start) throws ReflectiveOperationException {
+        int end = start + ops.length * 2;
+        byte[] bytes = new ClassWriter().write(ops, start, end);
+        Class<?> type = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+        return (Block)type.getDeclaredConstructor(Instruction[].class, int.class, int.class)
+                .newInstance(ops, start, end);
+    }
+
+    /**
+     * Whether the instruction is emitted inline rather than called through its handler.
+     */
+    static boolean inlined(Instruction op){
+        return op instanceof Instructions.LoadImmediate
+                || op instanceof Instructions.AddImmediate
+                || op instanceof Instructions.Move
+                || op instanceof Instructions.Or
+                || op instanceof Instructions.And
+                || op instanceof Instructions.Xor
+                || op instanceof Instructions.LoadIndex;
+    }
+
+    private static final class ClassWriter {
+
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream cp = new DataOutputStream(pool);
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+        private int poolSize = 1;
+
+        byte[] write(Instruction[] ops, int start, int end) {
+            try {
+                int thisClass  = classRef(NAME);
+                int superClass = classRef(BLOCK);
+                int code       = utf8("Code");
+
+                byte[] ctor = constructor(superClass);
+                byte[] body = execute(ops, start, end);
+
+                int ctorName = utf8("<init>");
+                int ctorDesc = utf8(CTOR_DESC);
+                int execName = utf8("execute");
+                int execDesc = utf8("(L" + CHIP + ";)V");
+
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bos);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(52);
+                out.writeShort(poolSize);
+                out.write(pool.toByteArray());
+                out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(0);      // interfaces
+                out.writeShort(0);      // fields
+                out.writeShort(2);      // methods
+                method(out, 0x0001, ctorName, ctorDesc, code, 4, 4, ctor);
+                method(out, 0x0000, execName, execDesc, code, 8, 3, body);
+                out.writeShort(0);      // attributes
+                return bos.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private byte[] constructor(int superClass) throws IOException {
+            int superInit = methodRef(superClass, "<init>", CTOR_DESC);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream code = new DataOutputStream(bos);
+            code.writeByte(ALOAD_0);
+            code.writeByte(ALOAD_1);
+            code.writeByte(ILOAD_2);
+            code.writeByte(ILOAD_3);
+            code.writeByte(INVOKESPECIAL);
+            code.writeShort(superInit);
+            code.writeByte(RETURN);
+            return bos.toByteArray();
+        }
+
+        private byte[] execute(Instruction[] ops, int start, int end) throws IOException {
+            int chip    = classRef(CHIP);
+            int block   = classRef(BLOCK);
+            int v       = fieldRef(chip, "V", "[B");
+            int index   = fieldRef(chip, "I", "C");
+            int pc      = fieldRef(chip, "pc", "C");
+            int opsRef  = fieldRef(block, "ops", OPS_DESC);
+            int handler = methodRef(classRef(INSTRUCTION), "execute", "(L" + CHIP + ";)V");
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream code = new DataOutputStream(bos);
+
+            // Keep the handlers array in a local
+            code.writeByte(ALOAD_0);
+            code.writeByte(GETFIELD);
+            code.writeShort(opsRef);
+            code.writeByte(ASTORE_2);
+
+            boolean pcUpToDate = false;
+            for (int i = 0; i < ops.length; i++) {
+                Instruction op = ops[i];
+                if (op instanceof Instructions.LoadImmediate) {        // V[x] = (byte)nn
+                    register(code, v, op.x);
+                    push(code, (byte)op.nn);
+                    code.writeByte(BASTORE);
+                } else if (op instanceof Instructions.AddImmediate) {  // V[x] = (byte)(V[x] + nn)
+                    register(code, v, op.x);
+                    code.writeByte(DUP2);
+                    code.writeByte(BALOAD);
+                    push(code, (byte)op.nn);
+                    code.writeByte(IADD);
+                    code.writeByte(BASTORE);
+                } else if (op instanceof Instructions.Move) {          // V[x] = V[y]
+                    register(code, v, op.x);
+                    register(code, v, op.y);
+                    code.writeByte(BALOAD);
+                    code.writeByte(BASTORE);
+                } else if (op instanceof Instructions.Or
+                        || op instanceof Instructions.And
+                        || op instanceof Instructions.Xor) {           // V[x] = V[x] op V[y]
+                    register(code, v, op.x);
+                    code.writeByte(DUP2);
+                    code.writeByte(BALOAD);
+                    register(code, v, op.y);
+                    code.writeByte(BALOAD);
+                    if (op instanceof Instructions.Or)
+                        code.writeByte(IOR);
+                    else if (op instanceof Instructions.And)
+                        code.writeByte(IAND);
+                    else
+                        code.writeByte(IXOR);
+                    code.writeByte(BASTORE);
+                } else if (op instanceof Instructions.LoadIndex) {     // I = nnn
+                    code.writeByte(ALOAD_1);
+                    push(code, op.nnn);
+                    code.writeByte(PUTFIELD);
+                    code.writeShort(index);
+                } else {                                               // ops[i].execute(chip)
+                    code.writeByte(ALOAD_1);
+                    push(code, start + i * 2);
+                    code.writeByte(PUTFIELD);
+                    code.writeShort(pc);
+                    code.writeByte(ALOAD_2);
+                    push(code, i);
+                    code.writeByte(AALOAD);
+                    code.writeByte(ALOAD_1);
+                    code.writeByte(INVOKEVIRTUAL);
+                    code.writeShort(handler);
+                    pcUpToDate = i == ops.length - 1;
+                    continue;
+                }
+                pcUpToDate = false;
+            }
+
+            if (!pcUpToDate) {
+                code.writeByte(ALOAD_1);
+                push(code, end);
+                code.writeByte(PUTFIELD);
+                code.writeShort(pc);
+            }
+            code.writeByte(RETURN);
+            return bos.toByteArray();
+        }
+
+        private void register(DataOutputStream code, int v, int reg) throws IOException {
+            code.writeByte(ALOAD_1);
+            code.writeByte(GETFIELD);
+            code.writeShort(v);
+            push(code, reg);
+        }
+
+        private void push(DataOutputStream code, int value) throws IOException {
+            if (value >= 0 && value <= 5) {
+                code.writeByte(ICONST_0 + value);
+            } else if (value >= -128 && value <= 127) {
+                code.writeByte(BIPUSH);
+                code.writeByte(value);
+            } else {
+                code.writeByte(SIPUSH);
+                code.writeShort(value);
+            }
+        }
+
+        private void method(DataOutputStream out, int access, int name, int desc, int codeAttr,
+                            int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(desc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);  // exception table
+            out.writeShort(0);  // attributes
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer idx = entries.get("U" + value);
+            if (idx != null)
+                return idx;
+            cp.writeByte(1);
+            cp.writeUTF(value);
+            return add("U" + value);
+        }
+
+        private int classRef(String name) throws IOException {
+            Integer idx = entries.get("C" + name);
+            if (idx != null)
+                return idx;
+            int nameIdx = utf8(name);
+            cp.writeByte(7);
+            cp.writeShort(nameIdx);
+            return add("C" + name);
+        }
+
+        private int fieldRef(int owner, String name, String desc) throws IOException {
+            return memberRef(9, owner, name, desc);
+        }
+
+        private int methodRef(int owner, String name, String desc) throws IOException {
+            return memberRef(10, owner, name, desc);
+        }
+
+        private int memberRef(int tag, int owner, String name, String desc) throws IOException {
+            String key = tag + ":" + owner + "." + name + desc;
+            Integer idx = entries.get(key);
+            if (idx != null)
+                return idx;
+            int nameIdx = utf8(name);
+            int descIdx = utf8(desc);
+            cp.writeByte(12);
+            cp.writeShort(nameIdx);
+            cp.writeShort(descIdx);
+            int nameAndType = add("T" + name + desc);
+            cp.writeByte(tag);
+            cp.writeShort(owner);
+            cp.writeShort(nameAndType);
+            return add(key);
+        }
+
+        private int add(String key){
+            int idx = poolSize++;
+            entries.put(key, idx);
+            return idx;
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package com.github.taganaka.chip8j.chip;
 
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * Created by Francesco Laurita <francesco.laurita@gmail.com> on 7/4/15.
@@ -11,53 +10,141 @@ import java.util.Random;
  */
 public class Chip {
 
-    static int MEM_SIZE      = 4096;
-    static int STACK_SIZE    = 16;
-    static int V_SIZE        = 16;
-    static int KEYS_SIZE     = 16;
-    static int SCREEN_WIDTH  = 64;
-    static int SCREEN_HEIGHT = 32;
-    static char INIT_PADDING = 0x200;
+    static final int MEM_SIZE      = 4096;
+    static final int XO_MEM_SIZE   = 65536;
+    static final int STACK_SIZE    = 16;
+    static final int V_SIZE        = 16;
+    static final int KEYS_SIZE     = 16;
+    // Low resolution mode, the only one of CHIP-8
+    static final int SCREEN_WIDTH  = 64;
+    static final int SCREEN_HEIGHT = 32;
+    static final char INIT_PADDING = 0x200;
+    // Longest loop, in instructions, that runUntil recognizes as idle
+    static final int IDLE_LOOP_LIMIT = 8;
+    // Iterations of a loop found busy before checking it again
+    static final int BUSY_LOOP_BACKOFF = 64;
+    // The 8x10 font of FX30 follows the 4x5 one
+    static final int BIG_FONT_ADDRESS = 0x50;
+
+    /**
+     * Framebuffer layout: PLANES planes of MAX_HEIGHT rows, each row made of ROW_WORDS words.
+     * Pixel x of a row is bit (63 - x % 64) of word x / 64. The low resolution mode uses the
+     * first word of the first SCREEN_HEIGHT rows of each plane.
+     */
+    public static final int MAX_WIDTH   = 128;
+    public static final int MAX_HEIGHT  = 64;
+    public static final int ROW_WORDS   = MAX_WIDTH / 64;
+    public static final int PLANE_WORDS = MAX_HEIGHT * ROW_WORDS;
+    public static final int PLANES      = 2;
 
     // Memory allocation
-    private char[] memory;
-    // Register holder
-    private char[] V;
+    Memory memory;
+    // Register holder, 8 bits each: read them through v(x), which zero-extends
+    byte[] V;
     // Address registers
-    private char I;
+    char I;
     // Program counter
-    private char pc;
+    char pc;
 
     // Function call stack
-    private char[] stack;
-    private int stackPointer;
+    short[] stack;
+    int stackPointer;
 
     //Delay timer: Game tick
-    private int delay_t;
+    int delay_t;
     // Sound timer
-    private int delay_s;
+    int delay_s;
 
-    // I/O
-    private byte keys[];
-    private byte lcd[];
+    final InstructionSet instructionSet;
+    final Quirks quirks;
 
+    // I/O
+    Keypad keypad;
+    // Framebuffer, see PLANE_WORDS for the layout
+    long lcd[];
+    // Current resolution
+    int width  = SCREEN_WIDTH;
+    int height = SCREEN_HEIGHT;
+    // Bitplanes drawn, cleared and scrolled (XO-CHIP FN01)
+    int planes = 1;
+
+    // SUPER-CHIP RPL user flags
+    byte[] flags;
+    // XO-CHIP audio pattern (F002) and pitch (FX3A)
+    byte[] audioPattern = new byte[16];
+    int pitch = 64;
+
+
+    boolean needRedrawing = false;
+    // Bounds of the framebuffer region changed since the last screen update (right and bottom excluded)
+    private int dirtyLeft, dirtyTop, dirtyRight, dirtyBottom;
+    Rng rnd;
+
+    // Keys as last seen by the program, and who wants to know when they change
+    private int observedKeys;
+    private InputListener inputListener;
+    // Set while FX0A finds no key down: time passes without executing it again
+    boolean waitingForKey;
+    // Address of the unsupported opcode the program stopped at, -1 while it runs
+    int haltedAt = -1;
+    // Set by runUntil when the program spins in a loop that only a key event can end,
+    // or that nothing can end
+    boolean idleUntilKey;
+    boolean idleForever;
+    // Instructions in that loop
+    private int idleLoopLength;
+    // Set by 1NNN when it jumps backward, i.e. closes a loop
+    boolean loopClosed;
+    // Instructions of the idle loop being checked, and whether the check is running
+    private final Instruction[] idleLoop = new Instruction[IDLE_LOOP_LIMIT];
+    private boolean checkingIdleLoop;
+    // Start of the last loop found busy, and iterations left before checking it again
+    private int busyLoop = -1;
+    private int busyLoopBackoff;
+
+    // Compiled blocks tier, null when disabled
+    private Recompiler recompiler;
+    // Instruction trace, null when disabled
+    private Tracer tracer;
+
+    // Number of instructions executed so far
+    private long cycles;
+    // Per opcode family and drawing counters, see counters()
+    final Counters counters = new Counters();
+
+    IOHandler ioHandler;
 
-    private boolean needRedrawing = false;
-    private Random rnd;
+    public Chip(IOHandler handler){
+        this(handler, System.nanoTime());
+    }
 
-    private IOHandler ioHandler;
+    public Chip(IOHandler handler, long seed){
+        this(handler, seed, InstructionSet.CHIP_8);
+    }
 
-    public Chip(IOHandler handler){
+    public Chip(IOHandler handler, long seed, InstructionSet instructionSet){
+        this(handler, seed, instructionSet, Quirks.defaultFor(instructionSet));
+    }
 
-        memory = new char[MEM_SIZE];
-        V = new char[V_SIZE];
+    /**
+     * @param seed seed of the CXNN random generator; the same seed yields the same sequence
+     * @param instructionSet opcodes, memory size and display capabilities of the machine
+     * @param quirks behaviour of the ambiguous opcodes
+     */
+    public Chip(IOHandler handler, long seed, InstructionSet instructionSet, Quirks quirks){
+
+        this.instructionSet = instructionSet;
+        this.quirks = quirks;
+        memory = new Memory(instructionSet.memorySize());
+        V = new byte[V_SIZE];
         I = 0x00;
 
-        stack = new char[STACK_SIZE];
+        stack = new short[STACK_SIZE];
         stackPointer = 0;
 
-        keys = new byte[KEYS_SIZE];
-        lcd  = new byte[SCREEN_WIDTH * SCREEN_HEIGHT];
+        keypad = new Keypad();
+        lcd  = new long[PLANES * PLANE_WORDS];
+        flags = new byte[instructionSet.flags()];
 
         delay_t = 0;
         delay_s = 0;
@@ -66,399 +153,348 @@ public class Chip {
 
         ioHandler = handler;
 
-        rnd = new Random();
+        rnd = new Rng(seed);
         clearScreen();
 
-        for (int i = 0; i < keys.length; i++){
-            keys[i] = 0;
-            V[i]    = 0;
+        for (int i = 0; i < V.length; i++){
+            V[i] = 0;
         }
     }
 
-    public void run(){
-        /**
-         * Fetch opCode
-         * Each opCode is 2-bytes long so we merge 2 item from mem array
-         */
-        final char opcode = (char)((memory[pc] << 8) | memory[pc + 1]);
-
-
-//         0NNN	Calls RCA 1802 program at address NNN.
-//         00E0	Clears the screen.
-//         00EE	Returns from a subroutine.
-//         1NNN	Jumps to address NNN.
-//         2NNN	Calls subroutine at NNN.
-//         3XNN	Skips the next instruction if VX equals NN.
-//         4XNN	Skips the next instruction if VX doesn't equal NN.
-//         5XY0	Skips the next instruction if VX equals VY.
-//         6XNN	Sets VX to NN.
-//         7XNN	Adds NN to VX.
-//         8XY0	Sets VX to the value of VY.
-//         8XY1	Sets VX to VX or VY.
-//         8XY2	Sets VX to VX and VY.
-//         8XY3	Sets VX to VX xor VY.
-//         8XY4	Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
-//         8XY5	VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-//         8XY6	Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift.
-//         8XY7	Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-//         8XYE	Shifts VX left by one. VF is set to the value of the most significant bit of VX before the shift.
-//         9XY0	Skips the next instruction if VX doesn't equal VY.
-//         ANNN	Sets I to the address NNN.
-//         BNNN	Jumps to the address NNN plus V0.
-//         CXNN	Sets VX to a random number, masked by NN.
-//         DXYN	Sprites stored in memory at location in index register (I), maximum 8bits wide. Wraps around the screen. If when drawn, clears a pixel, register VF is set to 1 otherwise it is zero. All drawing is XOR drawing (i.e. it toggles the screen pixels)
-//         EX9E	Skips the next instruction if the key stored in VX is pressed.
-//         EXA1	Skips the next instruction if the key stored in VX isn't pressed.
-//         FX07	Sets VX to the value of the delay timer.
-//         FX0A	A key press is awaited, and then stored in VX.
-//         FX15	Sets the delay timer to VX.
-//         FX18	Sets the sound timer to VX.
-//         FX1E	Adds VX to I.
-//         FX29	Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font.
-//         FX33	Stores the Binary-coded decimal representation of VX, with the most significant of three digits at the address in I, the middle digit at I plus 1, and the least significant digit at I plus 2. (In other words, take the decimal representation of VX, place the hundreds digit in memory at location in I, the tens digit at location I+1, and the ones digit at location I+2.)
-//         FX55	Stores V0 to VX in memory starting at address I.
-//         FX65	Fills V0 to VX with values from memory starting at address I
-
-
-        System.out.println("Processing opCode: " + Integer.toHexString(opcode).toUpperCase());
-        switch (opcode & 0xF000){ // opCommand is in in the first nibble
-            case 0x0000:
-                switch (opcode & 0x000F){
-                    case 0x0000: { //00E0	Clears the screen.
-                        needRedrawing = true;
-                        clearScreen();
-                        ioHandler.onClearScreen();
-                        pc += 2;
-                        break;
-                    }
-                    case 0x000E: { //00EE	Returns from a subroutine.
-                        --stackPointer;
-                        pc = stack[stackPointer];
-                        pc += 2;
-                        break;
-                    }
-                }
-                break;
+    private Chip(Chip parent, IOHandler handler){
+        instructionSet = parent.instructionSet;
+        quirks = parent.quirks;
+        memory = parent.memory.fork();
+        V = parent.V.clone();
+        I = parent.I;
 
-            case 0x1000: { //1NN Jumps to address NNN
-                pc = (char)(opcode & 0x0FFF);
-                break;
-            }
-            case 0x2000: { //2NNN	Calls subroutine at NNN.
-                stack[stackPointer++] = pc;
-                pc = (char)(opcode & 0x0FFF);
-                break;
-            }
-            case 0x3000: { //3XNN Skips the next instruction if VX equals NN
-                int x  = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                if (V[x] == nn)
-                    pc += 4;
-                else
-                    pc += 2;
-                break;
-            }
-            case 0x4000: { //4XNN Skips the next instruction if VX doesn't equal NN.
-                int x  = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                if (V[x] != nn)
-                    pc += 4;
-                else
-                    pc += 2;
-                break;
-            }
-            case 0x5000: { //5XY0	Skips the next instruction if VX equals VY.
-                int x = (opcode & 0x0F00) >> 8;
-                int y = (opcode & 0x00F0) >> 4;
-                if (V[x] == V[y])
-                    pc += 4;
-                else
-                    pc += 2;
-                break;
+        stack = parent.stack.clone();
+        stackPointer = parent.stackPointer;
 
-            }
-            case  0x6000: { //6XNN	Sets VX to NN
-                int x = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                V[x] = (char)nn;
-                pc += 2;
-                break;
-            }
-            case 0x7000: { //7XNN Adds NN to VX.
-                int x  = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                V[x] += nn;
-                pc += 2;
-                break;
-            }
+        keypad = new Keypad();
+        keypad.setMask(parent.keypad.mask());
+        lcd = parent.lcd.clone();
+        width  = parent.width;
+        height = parent.height;
+        planes = parent.planes;
+        flags  = parent.flags.clone();
+        audioPattern = parent.audioPattern.clone();
+        pitch  = parent.pitch;
 
-            case 0x8000: // Other data in the last nibble
-                switch (opcode & 0x000F){
-                    case 0x0000: { // 8XY0	Sets VX to the value of VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = V[y];
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0001: { //8XY1	Sets VX to VX or VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = (char)(V[x] | V[y]);
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0002: { //8XY2	Sets VX to VX and VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = (char)(V[x] & V[y]);
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0003: { //8XY3	Sets VX to VX xor VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = (char)(V[x] ^ V[y]);
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0004: { //8XY4	Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        if (V[y] > (0xFF - V[x])) // Overflow
-                            V[0xF] = 0x1; //Carry
-                        else
-                            V[0xF] = 0x0;
-                        V[x] += V[y];
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0005: { //8XY5	VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        char y = (char)((opcode & 0x00F0) >> 4);
-                        if (V[y] > V[x]) // Underflow
-                            V[0xF] = 0x0; // borrow
-                        else
-                            V[0xF] = 0x1;
-                        V[x] -= V[y];
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0006: { //8XY6	Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        V[0xF] = (char)(V[x] & 0x1);
-                        V[x] = (char)(V[x] >> 1);
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0007: { //8XY7	Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        char y = (char)((opcode & 0x00F0) >> 4);
-                        if (V[x] > V[y]) // Underflow
-                            V[0xF] = 0x0; // borrow
-                        else
-                            V[0xF] = 0x1;
-                        V[x] = (char)(V[y] - V[x]);
-                        pc += 2;
-                        break;
-                    }
-                    case 0x000E: { //8XYE	Shifts VX left by one. VF is set to the value of the most significant bit of VX before the shift.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        V[0xF] = (char)(V[x] & 0x80);
-                        V[x] = (char)(V[x] << 1);
-                        pc += 2;
-                        break;
-                    }
-                    default:
-                        System.err.println("Unsupported opcode: " + Integer.toHexString(opcode).toUpperCase());
-                }
-                break;
-            case 0x9000: { //9XY0	Skips the next instruction if VX doesn't equal VY.
-                char x = (char)((opcode & 0x0F00) >> 8);
-                char y = (char)((opcode & 0x00F0) >> 4);
-                if (V[x] == V[y])
-                    pc += 2;
-                else
-                    pc += 4;
-                break;
-            }
-            case 0xA000: { //ANNN	Sets I to the address NNN.
-                I = (char)(opcode & 0x0FFF);
-                pc += 2;
-                break;
-            }
-            case 0xB000: { //BNNN	Jumps to the address NNN plus V0.
-                pc = (char)(V[0x0] + (opcode & 0x0FFF));
-                pc += 2;
-                break;
-            }
-            case 0xC000: { // CXNN	Sets VX to a random number, masked by NN.
-                char x = (char)((opcode & 0x0F00) >> 8);
-                char nn = (char)(opcode & 0x00FF);
-                V[x] = (char)(rnd.nextInt(0xFF) & nn);
-                pc += 2;
-                break;
-            }
-            case 0xD000: { // DXYN Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels.
-                           // Sprites stored in memory at location in index register (I).
-                           // Maximum 8bits wide.
-                           // Wraps around the screen.
-                           // If when drawn, clears a pixel, register VF is set to 1 otherwise it is zero.
-                           // All drawing is XOR drawing (i.e. it toggles the screen pixels)
-                int x = V[(opcode & 0x0F00) >> 8];
-                int y = V[(opcode & 0x00F0) >> 4];
-                int height = opcode & 0x000F;
-
-                V[0xF] = 0;
-
-                for(int yline = 0; yline < height; yline++) {
-                    int line = memory[I + yline];
-                    for(int xline = 0; xline < 8; xline++) {
-                        int pixel = line & (0x80 >> xline);
-                        if(pixel != 0) {
-                            int xtotal = x + xline;
-                            int ytotal = y + yline;
-
-                            xtotal = xtotal % 64;
-                            ytotal = ytotal % 32;
-
-                            int index = (ytotal * 64) + xtotal;
-
-                            if(lcd[index] == 1)
-                                V[0xF] = 1;
-
-                            lcd[index] ^= 1;
-                        }
-                    }
-                }
-                pc += 2;
-                needRedrawing = true;
+        delay_t = parent.delay_t;
+        delay_s = parent.delay_s;
+
+        pc = parent.pc;
+
+        ioHandler = handler;
+
+        rnd = new Rng(0);
+        rnd.setState(parent.rnd.state());
+        cycles = parent.cycles;
+        observedKeys = parent.observedKeys;
+        haltedAt = parent.haltedAt;
+
+        if (parent.recompiler != null)
+            setRecompilerEnabled(true);
+    }
+
+    /**
+     * Creates an independent copy of this machine, continuing from the same state.
+     * Memory pages are shared copy-on-write, so a fork costs a few hundred bytes
+     * plus one page for each page either side writes afterwards. Compiled blocks
+     * are not shared: the fork starts with an empty recompiler, if enabled.
+     * This machine must not be running while forking.
+     */
+    public Chip fork(IOHandler handler){
+        return new Chip(this, handler);
+    }
+
+    /**
+     * Executes up to <code>count</code> instructions without any pacing.
+     * @return the number of elapsed cycles
+     */
+    public int execute(int count){
+        return (int)runUntil(cycles + count);
+    }
+
+    /**
+     * Executes instructions until the cycle counter reaches <code>cycle</code>.
+     * When the recompiler is enabled, hot blocks run as compiled code as long as
+     * they fit in the remaining budget, unless a tracer is attached.
+     * While the program {@link #waitingForKey() waits for a key} and none is pressed
+     * or queued, or is {@link #haltedAt() halted}, the counter jumps straight to <code>cycle</code>.
+     *
+     * After every backward jump the loop just closed is checked: when an iteration would
+     * change nothing but the program counter (e.g. a jump to itself, or FX07 / 3XNN / 1NNN
+     * polling a delay timer that only ticks between two calls) the counter skips all the
+     * iterations that fit before <code>cycle</code>, with the same result as running them.
+     * @return the number of elapsed cycles
+     */
+    public long runUntil(long cycle){
+        long start = cycles;
+        idleUntilKey = idleForever = false;
+        while (cycles < cycle) {
+            if (skipBlocked(cycle))
                 break;
-            }
-            case 0xE000: {
-                switch (opcode & 0x00FF) {
-                    case 0x009E: { //EX9E	Skips the next instruction if the key stored in VX is pressed.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        int key = V[x];
-
-                        if(keys[key] == 1)
-                            pc += 4;
-                        else
-                            pc += 2;
-                        break;
-                    }
-                    case 0x00A1: { //EXA1	Skips the next instruction if the key stored in VX isn't pressed.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        int key = V[x];
-
-                        if(keys[key] == 0)
-                            pc += 4;
-                        else
-                            pc += 2;
-
-                        break;
-
-                    }
-                    default:
-                        System.err.println("Unsupported opcode: " + Integer.toHexString(opcode));
+            if (recompiler != null && tracer == null) {
+                Block block = recompiler.blockAt(pc);
+                if (block != null && cycles + block.length() <= cycle) {
+                    block.execute(this);
+                    cycles += block.length();
+                    counters.add(block.families);
+                    flushScreen();
+                    if (loopClosed)
+                        skipIdleLoop(cycle);
+                    continue;
                 }
-                break;
             }
-            case 0xF000: {
-                switch (opcode & 0x00FF) {
-                    case 0x0007: { //FX07	Sets VX to the value of the delay timer.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        V[x] = (char)delay_t;
-                        pc += 2;
-                        break;
-                    }
-                    case 0x000A: { //FX0A	A key press is awaited, and then stored in VX.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-
-                        for(int i = 0; i < keys.length; i++) {
-                            if(keys[i] == 1) {
-                                V[x] = (char)i;
-                                pc += 2;
-                                break;
-                            }
-                        }
-
-                        break;
-                    }
-                    case 0x0015: { //FX15	Sets the delay timer to VX.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        delay_t = V[x];
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0018: { //FX18	Sets the sound timer to VX.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        delay_s = V[x];
-                        pc += 2;
-                        break;
-                    }
-                    case 0x001E: { //FX1E	Adds VX to I.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        if ((V[x] + I) > MEM_SIZE )
-                            V[0xF] = 1;
-                        else
-                            V[0xF] = 0;
-                        I += V[x];
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0029: { //FX29	Sets I to the location of the sprite for the character in VX.
-                                   // Characters 0-F (in hexadecimal) are represented by a 4x5 font.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        I = (char)(V[x] * 5);
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0033: { // FX33	Stores the Binary-coded decimal representation of VX,
-                                   // with the most significant of three digits at the address in I,
-                                   // the middle digit at I plus 1, and the least significant digit at I plus 2.
-                                   // (In other words, take the decimal representation of VX, place the hundreds digit in memory
-                                   // at location in I, the tens digit at location I+1, and the ones digit at location I+2.)
-                                   // WTF?
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        memory[I]     = (char)(V[x] / 100);
-                        memory[I + 1] = (char)((V[x] / 10) % 10);
-                        memory[I + 2] = (char)((V[x] % 100) % 10);
-                        pc += 2;
-                        break;
-
-                    }
-                    case 0x0055: { //FX55	Stores V0 to VX in memory starting at address I.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        System.arraycopy(V, 0, memory, I, x + 1);
-
-                        // On the original interpreter, when the operation is done, I = I + X + 1.
-                        I += x + 1;
-                        pc += 2;
-                        break;
-                    }
-                    case 0x0065: { //FX65	Fills V0 to VX with values from memory starting at address I.
-                        char x = (char)((opcode & 0x0F00) >> 8);
-                        System.arraycopy(memory, I, V, 0, x + 1);
-
-                        // On the original interpreter, when the operation is done, I = I + X + 1.
-                        I += x + 1;
-                        pc += 2;
-                        break;
-                    }
+            step();
+            if (loopClosed && tracer == null)
+                skipIdleLoop(cycle);
+        }
+        return cycles - start;
+    }
+
+    /**
+     * Moves the counter straight to <code>cycle</code> if the program is {@link #waitingForKey()
+     * waiting for a key}, {@link #idleForever() idle for good} or {@link #haltedAt() halted}:
+     * executing the cycles would change nothing but the program counter. An idle loop is left
+     * where running it would have left it. Timers are up to the caller, as with {@link #runUntil(long)}.
+     * @return false, doing nothing, if the program isn't blocked that way
+     */
+    public boolean skipBlocked(long cycle){
+        if (haltedAt >= 0 || waitingForKey && keypad.mask() == 0 && !keypad.hasPending()) {
+            if (cycles < cycle)
+                cycles = cycle;
+            return true;
+        }
+        if (!idleForever && !(idleUntilKey && !keypad.hasPending()))
+            return false;
+        if (cycles < cycle) {
+            long iterations = (cycle - cycles) / idleLoopLength;
+            cycles += iterations * idleLoopLength;
+            for (int i = 0; i < idleLoopLength; i++)
+                counters.instructions[idleLoop[i].opcode >>> 12] += iterations;
+            // Less than an iteration left, from wherever the loop was at
+            while (cycles < cycle)
+                step();
+            loopClosed = false;
+        }
+        return true;
+    }
+
+    /**
+     * Follows one iteration of the loop starting at pc, without counting it. If every
+     * instruction on the way is {@link Instruction#idle(Chip) idle}, the loop can only end
+     * on a timer tick or a key event, neither of which happens during runUntil, so the whole
+     * iterations left before <code>cycle</code> are accounted for without running them.
+     * A busy loop is only checked again every {@link #BUSY_LOOP_BACKOFF} iterations.
+     */
+    private void skipIdleLoop(long cycle){
+        char head = pc;
+        if (head == busyLoop && --busyLoopBackoff > 0) {
+            loopClosed = false;
+            return;
+        }
+        int length = 0;
+        boolean readsTimer = false;
+        boolean readsKeys  = false;
+        checkingIdleLoop = true;
+        try {
+            do {
+                Instruction op = memory.instruction(pc);
+                if (op == null)
+                    op = decode(pc);
+                if (length == IDLE_LOOP_LIMIT || !op.idle(this)) {
+                    pc = head;
+                    busyLoop = head;
+                    busyLoopBackoff = BUSY_LOOP_BACKOFF;
+                    return;
                 }
-                break;
-            }
-            default:
-                System.err.println("Unsupported opcode: " + Integer.toHexString(opcode));
+                readsTimer |= op instanceof Instructions.GetDelay;
+                readsKeys  |= op instanceof Instructions.SkipKeyPressed || op instanceof Instructions.SkipKeyNotPressed;
+                idleLoop[length++] = op;
+                op.execute(this);
+            } while (pc != head);
+        } finally {
+            checkingIdleLoop = false;
+            loopClosed = false;
         }
+        long iterations = (cycle - cycles) / length;
+        cycles += iterations * length;
+        for (int i = 0; i < length; i++)
+            counters.instructions[idleLoop[i].opcode >>> 12] += iterations;
+        boolean stopped = !readsTimer || delay_t == 0;
+        idleUntilKey = stopped && readsKeys;
+        idleForever  = stopped && !readsKeys;
+        idleLoopLength = length;
+    }
+
+    /**
+     * Turns the basic-block recompiler tier on or off.
+     */
+    public void setRecompilerEnabled(boolean enabled){
+        recompiler = enabled ? new Recompiler(this, memory.size()) : null;
+    }
+
+    /**
+     * Attaches an instruction tracer, or detaches it with null.
+     * While a tracer is attached every instruction is interpreted, so that each one is recorded.
+     */
+    public void setTracer(Tracer tracer){
+        this.tracer = tracer;
+    }
+
+    public InstructionSet instructionSet(){
+        return instructionSet;
+    }
+
+    public Quirks quirks(){
+        return quirks;
+    }
+
+    /**
+     * Ticks left on the delay timer.
+     */
+    public int delayTimer(){
+        return delay_t;
+    }
+
+    /**
+     * Ticks left on the sound timer: the machine beeps while it is not zero.
+     */
+    public int soundTimer(){
+        return delay_s;
+    }
+
+    /**
+     * Copies the 16 bytes XO-CHIP audio pattern (F002) into <code>dst</code>,
+     * played one bit per sample, most significant first.
+     */
+    public void audioPattern(byte[] dst){
+        System.arraycopy(audioPattern, 0, dst, 0, audioPattern.length);
+    }
+
+    /**
+     * XO-CHIP playback pitch (FX3A): the pattern plays at 4000 * 2^((pitch - 64) / 48) bits per second.
+     */
+    public int pitch(){
+        return pitch;
+    }
+
+    /**
+     * Width of the display in the current mode: 64, or 128 in high resolution.
+     */
+    public int screenWidth(){
+        return width;
+    }
+
+    /**
+     * Height of the display in the current mode: 32, or 64 in high resolution.
+     */
+    public int screenHeight(){
+        return height;
+    }
+
+    public long getCycles(){
+        return cycles;
+    }
 
+    /**
+     * Counters of the work done by this machine, to be read and reset by the thread running it.
+     */
+    public Counters counters(){
+        return counters;
+    }
+
+    void setCycles(long cycles){
+        this.cycles = cycles;
+    }
 
+    /**
+     * Size in bytes of a save state of this machine, see {@link #saveState(ByteBuffer)}.
+     */
+    public int stateSize(){
+        return SaveState.size(instructionSet);
+    }
+
+    /**
+     * Writes the whole machine state (memory, registers, stack, timers, keys,
+     * RNG, cycle counter, display mode and framebuffer) at the buffer position.
+     */
+    public void saveState(ByteBuffer out){
+        SaveState.save(this, out);
+    }
+
+    public byte[] saveState(){
+        byte[] state = new byte[stateSize()];
+        SaveState.save(this, ByteBuffer.wrap(state));
+        return state;
+    }
+
+    /**
+     * Restores a state written by {@link #saveState(ByteBuffer)}, from the buffer position.
+     * The next screen update reports the whole screen as dirty.
+     * @throws IllegalArgumentException if the buffer doesn't hold a supported save state
+     *         of a machine with the same instruction set
+     */
+    public void restoreState(ByteBuffer in){
+        SaveState.restore(this, in);
+    }
+
+    public void restoreState(byte[] state){
+        SaveState.restore(this, ByteBuffer.wrap(state));
+    }
+
+    /**
+     * Fetches, decodes and executes a single instruction.
+     * Pacing and timers are up to the caller (see {@link com.github.taganaka.chip8j.host.Scheduler}).
+     */
+    public void step(){
+        Instruction op = memory.instruction(pc);
+        if (op == null)
+            op = decode(pc);
+
+        char at = pc;
+        counters.instructions[op.opcode >>> 12]++;
+        op.execute(this);
+        if (tracer != null)
+            tracer.trace(cycles, at, op.opcode, this);
+        flushScreen();
+
+        cycles++;
+    }
+
+    private void flushScreen(){
         if (needRedrawing){
             needRedrawing = false;
-            ioHandler.onUpdateScreen(lcd);
+            ioHandler.onUpdateScreen(lcd, dirtyLeft, dirtyTop, dirtyRight - dirtyLeft, dirtyBottom - dirtyTop);
         }
+    }
 
+    /**
+     * Records that the framebuffer region [left, right) x [top, bottom) has changed.
+     */
+    void markDirty(int left, int top, int right, int bottom){
+        if (needRedrawing) {
+            dirtyLeft   = Math.min(dirtyLeft, left);
+            dirtyTop    = Math.min(dirtyTop, top);
+            dirtyRight  = Math.max(dirtyRight, right);
+            dirtyBottom = Math.max(dirtyBottom, bottom);
+        } else {
+            needRedrawing = true;
+            dirtyLeft   = left;
+            dirtyTop    = top;
+            dirtyRight  = right;
+            dirtyBottom = bottom;
+        }
+    }
+
+    /**
+     * Decrements the delay and sound timers.
+     * Meant to be called at 60Hz of emulated time, independently from the instruction rate.
+     */
+    public void tickTimers(){
         if (delay_t > 0)
             delay_t--;
 
@@ -468,52 +504,259 @@ public class Chip {
             }
             delay_s--;
         }
+    }
 
-        try {
-            Thread.sleep(10);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Loads a ROM image at 0x200 together with the font sets, from a file
+     * or from an archive entry given as <code>archive.zip!/entry</code>, see {@link Rom#load(String)}.
+     * Errors are reported to the caller, several machines may share the same process.
+     */
+    public void loadROM(String fileName) throws RomLoadException {
+        loadROM(Rom.load(fileName));
     }
 
-    public void loadROM(String fileName){
-        DataInputStream dis = null;
-        try {
-            dis = new DataInputStream(new FileInputStream(fileName));
-            for(int off = 0; dis.available() > 0 ;){
-                memory[INIT_PADDING + off] = (char)(dis.readByte() & 0xFF);
-                off++;
-            }
-            // Load font set at the beginning
-            for (int i = 0; i < FontSet.chip8_fontset.length; i++) {
-                memory[i] = (char)(FontSet.chip8_fontset[i] & 0xFF);
+    public void loadROM(Path path) throws RomLoadException {
+        loadROM(Rom.load(path));
+    }
+
+    public void loadROM(byte[] image) throws RomLoadException {
+        loadROM(Rom.of("image", image));
+    }
+
+    public void loadROM(ByteBuffer image) throws RomLoadException {
+        loadROM(Rom.of("image", image));
+    }
+
+    /**
+     * Loads a program, sharing its pages with every other machine running it.
+     * Memory past the end of the image up to the next page boundary is cleared.
+     * @throws RomLoadException if the image doesn't fit the memory of this machine
+     */
+    public void loadROM(Rom rom) throws RomLoadException {
+        if (rom.size() > memory.size() - INIT_PADDING)
+            throw new RomLoadException(rom.name() + " is " + rom.size() + " bytes, " + instructionSet
+                    + " programs can't be larger than " + (memory.size() - INIT_PADDING));
+        memory.share(INIT_PADDING, rom.pages());
+        // Load font set at the beginning
+        for (int i = 0; i < FontSet.chip8_fontset.length; i++) {
+            memory.write(i, FontSet.chip8_fontset[i]);
+        }
+        if (instructionSet.extended()) {
+            for (int i = 0; i < FontSet.big_fontset.length; i++) {
+                memory.write(BIG_FONT_ADDRESS + i, FontSet.big_fontset[i]);
             }
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            System.exit(1);
-        } finally {
-            if (dis != null) {
-                try {
-                    dis.close();
-                } catch (Exception ex) {}
+        }
+        invalidate(0, memory.size());
+    }
+
+    /**
+     * Fetches the opcode at <code>address</code> and caches its decoded form.
+     * Each opCode is 2-bytes long so we merge 2 item from mem array
+     */
+    Instruction instructionAt(int address){
+        Instruction op = memory.instruction(address);
+        return op != null ? op : decode(address);
+    }
+
+    private Instruction decode(int address){
+        final char opcode = (char)((memory.read(address) << 8) | memory.read(address + 1));
+        Instruction op = Decoder.decode(opcode, instructionSet, quirks);
+        memory.setInstruction(address, op);
+        return op;
+    }
+
+    /**
+     * Drops the cached instructions overlapping <code>length</code> bytes written at <code>address</code>.
+     */
+    void invalidate(int address, int length){
+        int from = Math.max(address - 1, 0);
+        int to   = Math.min(address + length, memory.size());
+        memory.invalidate(from, to);
+        if (recompiler != null)
+            recompiler.invalidate(address, length);
+    }
+
+    /**
+     * The keypad read by the running program, pressed and released by one input thread.
+     */
+    public Keypad keypad(){
+        return keypad;
+    }
+
+    /**
+     * Whether the program is blocked until the next key event (see {@link Keypad#setWakeup(Runnable)}):
+     * on FX0A with no key pressed or, as of the last runUntil, in an idle loop that polls the
+     * keys and doesn't read a running delay timer.
+     */
+    public boolean waitingForKey(){
+        return (waitingForKey && keypad.mask() == 0 || idleUntilKey) && !keypad.hasPending();
+    }
+
+    /**
+     * Whether, as of the last runUntil, the program spins in an idle loop that reads neither
+     * the keys nor a running delay timer: nothing can ever end it.
+     */
+    public boolean idleForever(){
+        return idleForever;
+    }
+
+    /**
+     * Address of the unsupported opcode the program stopped at, or -1 if it hasn't.
+     * Time still passes on a halted machine, but no instruction runs until a save state is restored.
+     */
+    public int haltedAt(){
+        return haltedAt;
+    }
+
+    /**
+     * VX, zero-extended.
+     */
+    final int v(int x){
+        return V[x] & 0xFF;
+    }
+
+    /**
+     * Sets VX to the low 8 bits of <code>value</code>.
+     */
+    final void setV(int x, int value){
+        V[x] = (byte)value;
+    }
+
+    /**
+     * Reads the keypad on behalf of the running instruction,
+     * reporting to the input listener any change since the previous read.
+     */
+    int keys(){
+        if (checkingIdleLoop)
+            return observedKeys;
+        int keys = keypad.poll();
+        if (keys != observedKeys) {
+            observedKeys = keys;
+            if (inputListener != null)
+                inputListener.onKeysObserved(cycles, keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Whether reading the keypad now would neither change nor report anything.
+     */
+    boolean keysSettled(){
+        return !keypad.hasPending() && keypad.mask() == observedKeys;
+    }
+
+    public void setInputListener(InputListener listener){
+        inputListener = listener;
+    }
+
+    /**
+     * 64 bits FNV-1a style hash of the visible framebuffer words, to compare frames across runs.
+     */
+    public long frameHash(){
+        long hash = 0xCBF29CE484222325L;
+        int words = width >> 6;
+        for (int plane = 0; plane < instructionSet.planes(); plane++) {
+            for (int row = 0; row < height; row++) {
+                for (int word = 0; word < words; word++) {
+                    hash ^= lcd[plane * PLANE_WORDS + row * ROW_WORDS + word];
+                    hash *= 0x100000001B3L;
+                }
             }
         }
+        return hash;
+    }
+
+    void clearScreen(){
+        Arrays.fill(lcd, 0L);
+    }
+
+    /**
+     * Clears the bitplanes selected by <code>mask</code>.
+     */
+    void clearPlanes(int mask){
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((mask & (1 << plane)) != 0)
+                Arrays.fill(lcd, plane * PLANE_WORDS, plane * PLANE_WORDS + height * ROW_WORDS, 0L);
+        }
+        markDirty(0, 0, width, height);
+    }
 
+    /**
+     * Switches between the 64x32 and 128x64 modes, clearing the screen.
+     */
+    void setResolution(boolean high){
+        width  = high ? MAX_WIDTH : SCREEN_WIDTH;
+        height = high ? MAX_HEIGHT : SCREEN_HEIGHT;
+        clearScreen();
+        markDirty(0, 0, width, height);
     }
 
-    public void setKeys(byte[] k){
-        keys = k;
+    /**
+     * Scrolls the selected bitplanes by <code>rows</code>, down when positive, up when negative.
+     */
+    void scrollVertical(int rows){
+        int count = Math.min(Math.abs(rows), height) * ROW_WORDS;
+        int length = height * ROW_WORDS - count;
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) == 0)
+                continue;
+            int base = plane * PLANE_WORDS;
+            if (rows > 0) {
+                System.arraycopy(lcd, base, lcd, base + count, length);
+                Arrays.fill(lcd, base, base + count, 0L);
+            } else {
+                System.arraycopy(lcd, base + count, lcd, base, length);
+                Arrays.fill(lcd, base + length, base + length + count, 0L);
+            }
+        }
+        markDirty(0, 0, width, height);
     }
 
-    private void clearScreen(){
-        for (int i = 0; i < lcd.length; i++){
-            lcd[i] = 0x0;
+    /**
+     * Scrolls the selected bitplanes by less than 64 <code>columns</code>, right when positive, left when negative.
+     */
+    void scrollHorizontal(int columns){
+        int shift = Math.abs(columns);
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((planes & (1 << plane)) == 0)
+                continue;
+            for (int at = plane * PLANE_WORDS; at < plane * PLANE_WORDS + height * ROW_WORDS; at += ROW_WORDS) {
+                if (width == SCREEN_WIDTH) {
+                    lcd[at] = columns > 0 ? lcd[at] >>> shift : lcd[at] << shift;
+                } else if (columns > 0) {
+                    lcd[at + 1] = (lcd[at + 1] >>> shift) | (lcd[at] << (64 - shift));
+                    lcd[at] >>>= shift;
+                } else {
+                    lcd[at] = (lcd[at] << shift) | (lcd[at + 1] >>> (64 - shift));
+                    lcd[at + 1] <<= shift;
+                }
+            }
         }
+        markDirty(0, 0, width, height);
+    }
+
+    /**
+     * Notified when the program observes a keypad state different from the previous one.
+     * Since the program can only react to what it reads, replaying these changes at the
+     * same cycles reproduces the run exactly.
+     */
+    public interface InputListener {
+        /**
+         * @param cycle cycle of the instruction reading the keys
+         * @param keys  bitmask of the pressed keys
+         */
+        void onKeysObserved(long cycle, int keys);
     }
 
     public interface IOHandler {
         void onClearScreen();
-        void onUpdateScreen(byte[] lcd);
+        /**
+         * Called once the instruction (or compiled block) that changed the framebuffer completes.
+         * @param lcd framebuffer laid out as described by {@link Chip#PLANE_WORDS}, at the
+         *            resolution given by {@link Chip#screenWidth()} and {@link Chip#screenHeight()}
+         * @param x,y,width,height the region changed since the previous call, in pixels of the current mode
+         */
+        void onUpdateScreen(long[] lcd, int x, int y, int width, int height);
         void onEmitSound();
     }
 }
@@ -0,0 +1,60 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Plain counters updated by the thread running a {@link Chip}, see {@link Chip#counters()}.
+ * They are cheap enough to stay on in the interpreter loop; whoever publishes them
+ * (e.g. {@link com.github.taganaka.chip8j.host.ChipMetrics}) must do it from that same
+ * thread and reset them afterwards.
+ */
+public final class Counters {
+
+    // Opcode families, by most significant nibble
+    public static final int FAMILIES = 16;
+
+    final long[] instructions = new long[FAMILIES];
+    long drawCalls;
+    long pixelsToggled;
+
+    Counters(){
+    }
+
+    /**
+     * Instructions executed in the family of opcodes <code>family</code>NNN.
+     */
+    public long instructions(int family){
+        return instructions[family];
+    }
+
+    public long drawCalls(){
+        return drawCalls;
+    }
+
+    /**
+     * Pixels flipped by DXYN, whether turned on or off.
+     */
+    public long pixelsToggled(){
+        return pixelsToggled;
+    }
+
+    public void reset(){
+        for (int i = 0; i < FAMILIES; i++)
+            instructions[i] = 0;
+        drawCalls = 0;
+        pixelsToggled = 0;
+    }
+
+    /**
+     * Accounts for one execution of a compiled block, whose family counts are precomputed.
+     */
+    void add(int[] families){
+        for (int i = 0; i < FAMILIES; i++)
+            instructions[i] += families[i];
+    }
+
+    static int[] families(Instruction[] ops){
+        int[] families = new int[FAMILIES];
+        for (Instruction op : ops)
+            families[op.opcode >>> 12]++;
+        return families;
+    }
+}
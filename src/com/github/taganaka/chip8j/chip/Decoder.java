@@ -0,0 +1,197 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Turns raw opcodes into {@link Instruction} handlers.
+ * Decoding happens once per memory address: the result is cached by {@link Chip}
+ * until the address is written again. Quirks are resolved here too, by picking
+ * the matching handler, so that handlers never test them while executing.
+ */
+class Decoder {
+
+//         0NNN	Calls RCA 1802 program at address NNN.
+//         00E0	Clears the screen.
+//         00EE	Returns from a subroutine.
+//         1NNN	Jumps to address NNN.
+//         2NNN	Calls subroutine at NNN.
+//         3XNN	Skips the next instruction if VX equals NN.
+//         4XNN	Skips the next instruction if VX doesn't equal NN.
+//         5XY0	Skips the next instruction if VX equals VY.
+//         6XNN	Sets VX to NN.
+//         7XNN	Adds NN to VX.
+//         8XY0	Sets VX to the value of VY.
+//         8XY1	Sets VX to VX or VY.
+//         8XY2	Sets VX to VX and VY.
+//         8XY3	Sets VX to VX xor VY.
+//         8XY4	Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
+//         8XY5	VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+//         8XY6	Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift.
+//         8XY7	Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+//         8XYE	Shifts VX left by one. VF is set to the value of the most significant bit of VX before the shift.
+//         9XY0	Skips the next instruction if VX doesn't equal VY.
+//         ANNN	Sets I to the address NNN.
+//         BNNN	Jumps to the address NNN plus V0.
+//         CXNN	Sets VX to a random number, masked by NN.
+//         DXYN	Sprites stored in memory at location in index register (I), maximum 8bits wide. Wraps around the screen. If when drawn, clears a pixel, register VF is set to 1 otherwise it is zero. All drawing is XOR drawing (i.e. it toggles the screen pixels)
+//         EX9E	Skips the next instruction if the key stored in VX is pressed.
+//         EXA1	Skips the next instruction if the key stored in VX isn't pressed.
+//         FX07	Sets VX to the value of the delay timer.
+//         FX0A	A key press is awaited, and then stored in VX.
+//         FX15	Sets the delay timer to VX.
+//         FX18	Sets the sound timer to VX.
+//         FX1E	Adds VX to I.
+//         FX29	Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font.
+//         FX33	Stores the Binary-coded decimal representation of VX, with the most significant of three digits at the address in I, the middle digit at I plus 1, and the least significant digit at I plus 2. (In other words, take the decimal representation of VX, place the hundreds digit in memory at location in I, the tens digit at location I+1, and the ones digit at location I+2.)
+//         FX55	Stores V0 to VX in memory starting at address I.
+//         FX65	Fills V0 to VX with values from memory starting at address I
+//
+// SUPER-CHIP additions:
+//         00CN	Scrolls the display down by N rows.
+//         00FB	Scrolls the display right by 4 pixels.
+//         00FC	Scrolls the display left by 4 pixels.
+//         00FD	Exits the interpreter.
+//         00FE	Switches to the 64x32 mode.
+//         00FF	Switches to the 128x64 mode.
+//         DXY0	Draws a 16x16 sprite.
+//         FX30	Sets I to the location of the 8x10 sprite for the digit in VX.
+//         FX75	Stores V0 to VX in the RPL user flags.
+//         FX85	Fills V0 to VX from the RPL user flags.
+//
+// XO-CHIP additions:
+//         00DN	Scrolls the display up by N rows.
+//         5XY2	Stores VX to VY, in that order, in memory starting at address I. I is unchanged.
+//         5XY3	Fills VX to VY, in that order, from memory starting at address I. I is unchanged.
+//         F000 NNNN	Sets I to the 16 bits address NNNN. Skips treat it as a single instruction.
+//         FN01	Selects the bitplanes N drawn, cleared and scrolled.
+//         F002	Loads the 16 bytes audio pattern at I.
+//         FX3A	Sets the audio pattern playback pitch to VX.
+
+    /**
+     * Decodes an opcode of the given instruction set, picking the handlers implementing the quirks profile.
+     */
+    static Instruction decode(char opcode, InstructionSet set, Quirks quirks){
+        Instruction op = set.extended() ? decodeExtended(opcode, set, quirks) : null;
+        if (op == null)
+            op = decode(opcode, quirks);
+        if (set == InstructionSet.XO_CHIP && Instructions.LongSkip.skips(op))
+            op = new Instructions.LongSkip(op);
+        return op;
+    }
+
+    /**
+     * Decodes the SUPER-CHIP and XO-CHIP opcodes, null for the ones behaving as in CHIP-8.
+     */
+    private static Instruction decodeExtended(char opcode, InstructionSet set, Quirks quirks){
+        boolean xo = set == InstructionSet.XO_CHIP;
+        switch (opcode & 0xF000){
+            case 0x0000:
+                if ((opcode & 0xFFF0) == 0x00C0)
+                    return new Instructions.ScrollDown(opcode);
+                if ((opcode & 0xFFF0) == 0x00D0 && xo)
+                    return new Instructions.ScrollUp(opcode);
+                switch (opcode){
+                    case 0x00FB: return new Instructions.ScrollRight(opcode);
+                    case 0x00FC: return new Instructions.ScrollLeft(opcode);
+                    case 0x00FD: return new Instructions.Exit(opcode);
+                    case 0x00FE: return new Instructions.LowResolution(opcode);
+                    case 0x00FF: return new Instructions.HighResolution(opcode);
+                    default:     return null;
+                }
+            case 0x5000:
+                if (!xo)
+                    return null;
+                switch (opcode & 0x000F){
+                    case 0x0002: return new Instructions.StoreRange(opcode);
+                    case 0x0003: return new Instructions.LoadRange(opcode);
+                    default:     return null;
+                }
+            case 0xD000: return quirks.clipSprites ? new Instructions.ClippedExtendedDraw(opcode)
+                                                   : new Instructions.ExtendedDraw(opcode);
+            case 0xF000:
+                if (xo) {
+                    if (opcode == 0xF000)
+                        return new Instructions.LoadLongIndex(opcode);
+                    if (opcode == 0xF002)
+                        return new Instructions.LoadAudioPattern(opcode);
+                    switch (opcode & 0x00FF){
+                        case 0x0001: return new Instructions.SelectPlanes(opcode);
+                        case 0x003A: return new Instructions.SetPitch(opcode);
+                    }
+                }
+                switch (opcode & 0x00FF){
+                    case 0x0030: return new Instructions.LoadBigFont(opcode);
+                    case 0x0075: return new Instructions.StoreFlags(opcode);
+                    case 0x0085: return new Instructions.LoadFlags(opcode);
+                    default:     return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decodes the original CHIP-8 opcodes.
+     */
+    static Instruction decode(char opcode, Quirks quirks){
+        switch (opcode & 0xF000){ // opCommand is in in the first nibble
+            case 0x0000:
+                switch (opcode & 0x000F){
+                    case 0x0000: return new Instructions.ClearScreen(opcode);
+                    case 0x000E: return new Instructions.Return(opcode);
+                    default:     return new Instructions.Ignored(opcode);
+                }
+            case 0x1000: return new Instructions.Jump(opcode);
+            case 0x2000: return new Instructions.Call(opcode);
+            case 0x3000: return new Instructions.SkipEqualImmediate(opcode);
+            case 0x4000: return new Instructions.SkipNotEqualImmediate(opcode);
+            case 0x5000: return new Instructions.SkipEqualRegister(opcode);
+            case 0x6000: return new Instructions.LoadImmediate(opcode);
+            case 0x7000: return new Instructions.AddImmediate(opcode);
+            case 0x8000: // Other data in the last nibble
+                switch (opcode & 0x000F){
+                    case 0x0000: return new Instructions.Move(opcode);
+                    case 0x0001: return quirks.logicResetsVF ? new Instructions.OrResetFlag(opcode)
+                                                             : new Instructions.Or(opcode);
+                    case 0x0002: return quirks.logicResetsVF ? new Instructions.AndResetFlag(opcode)
+                                                             : new Instructions.And(opcode);
+                    case 0x0003: return quirks.logicResetsVF ? new Instructions.XorResetFlag(opcode)
+                                                             : new Instructions.Xor(opcode);
+                    case 0x0004: return new Instructions.Add(opcode);
+                    case 0x0005: return new Instructions.Sub(opcode);
+                    case 0x0006: return quirks.shiftReadsVY ? new Instructions.ShiftRightY(opcode)
+                                                            : new Instructions.ShiftRight(opcode);
+                    case 0x0007: return new Instructions.SubReverse(opcode);
+                    case 0x000E: return quirks.shiftReadsVY ? new Instructions.ShiftLeftY(opcode)
+                                                            : new Instructions.ShiftLeft(opcode);
+                    default:     return new Instructions.Unsupported(opcode);
+                }
+            case 0x9000: return new Instructions.SkipNotEqualRegister(opcode);
+            case 0xA000: return new Instructions.LoadIndex(opcode);
+            case 0xB000: return new Instructions.JumpOffset(opcode, quirks.jumpOffset);
+            case 0xC000: return new Instructions.Random(opcode);
+            case 0xD000: return quirks.clipSprites ? new Instructions.ClippedDraw(opcode)
+                                                   : new Instructions.Draw(opcode);
+            case 0xE000:
+                switch (opcode & 0x00FF) {
+                    case 0x009E: return new Instructions.SkipKeyPressed(opcode);
+                    case 0x00A1: return new Instructions.SkipKeyNotPressed(opcode);
+                    default:     return new Instructions.Unsupported(opcode);
+                }
+            case 0xF000:
+                switch (opcode & 0x00FF) {
+                    case 0x0007: return new Instructions.GetDelay(opcode);
+                    case 0x000A: return new Instructions.WaitKey(opcode);
+                    case 0x0015: return new Instructions.SetDelay(opcode);
+                    case 0x0018: return new Instructions.SetSound(opcode);
+                    case 0x001E: return quirks.indexOverflowSetsVF ? new Instructions.AddIndexSetFlag(opcode)
+                                                                   : new Instructions.AddIndex(opcode);
+                    case 0x0029: return new Instructions.LoadFont(opcode);
+                    case 0x0033: return new Instructions.StoreBCD(opcode);
+                    case 0x0055: return new Instructions.StoreRegisters(opcode, quirks.indexIncrement);
+                    case 0x0065: return new Instructions.LoadRegisters(opcode, quirks.indexIncrement);
+                    default:     return new Instructions.Ignored(opcode);
+                }
+            default:
+                return new Instructions.Unsupported(opcode);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * A pre-decoded instruction: the handler for one opcode family
+ * together with the operands already extracted from the opcode.
+ */
+abstract class Instruction {
+
+    final char opcode;
+    final int x;
+    final int y;
+    final int n;
+    final int nn;
+    final int nnn;
+
+    Instruction(char opcode){
+        this.opcode = opcode;
+        this.x   = (opcode & 0x0F00) >> 8;
+        this.y   = (opcode & 0x00F0) >> 4;
+        this.n   = (opcode & 0x000F);
+        this.nn  = (opcode & 0x00FF);
+        this.nnn = (opcode & 0x0FFF);
+    }
+
+    abstract void execute(Chip c);
+
+    /**
+     * Whether executing this instruction now would change nothing but the program counter,
+     * so that a loop made only of such instructions spins in place (see {@link Chip#runUntil(long)}).
+     */
+    boolean idle(Chip c){
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Machine generations a {@link Chip} can emulate, chosen at construction.
+ * Each one is a superset of the previous: the opcodes it adds are decoded as
+ * before under the older sets.
+ */
+public enum InstructionSet {
+
+    /**
+     * The original interpreter: 64x32 display, 4KB of memory.
+     */
+    CHIP_8(Chip.MEM_SIZE, 1, 0),
+
+    /**
+     * SUPER-CHIP 1.1: adds the 128x64 mode (00FE/00FF), scrolling (00Cn, 00FB, 00FC),
+     * exit (00FD), 16x16 sprites (DXY0), the big font (FX30) and 8 RPL flags (FX75/FX85).
+     */
+    SUPER_CHIP(Chip.MEM_SIZE, 1, 8),
+
+    /**
+     * XO-CHIP: adds 64KB of memory, two bitplanes (FN01), scrolling up (00Dn),
+     * register ranges (5XY2/5XY3), the long index load (F000 NNNN),
+     * audio patterns (F002, FX3A) and 16 RPL flags.
+     */
+    XO_CHIP(Chip.XO_MEM_SIZE, 2, 16);
+
+    private final int memorySize;
+    private final int planes;
+    private final int flags;
+
+    InstructionSet(int memorySize, int planes, int flags){
+        this.memorySize = memorySize;
+        this.planes     = planes;
+        this.flags      = flags;
+    }
+
+    public int memorySize(){
+        return memorySize;
+    }
+
+    /**
+     * Number of bitplanes of the display.
+     */
+    public int planes(){
+        return planes;
+    }
+
+    /**
+     * Number of RPL user flags available to FX75/FX85.
+     */
+    public int flags(){
+        return flags;
+    }
+
+    public boolean extended(){
+        return this != CHIP_8;
+    }
+}
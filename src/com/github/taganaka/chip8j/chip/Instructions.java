@@ -0,0 +1,902 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Handlers for every supported opcode.
+ * Each handler is a small final class, so that call sites stay monomorphic
+ * and the JIT can inline them.
+ */
+final class Instructions {
+
+    private Instructions(){
+    }
+
+    private static boolean pressed(int keys, int key){
+        return key < Chip.KEYS_SIZE && ((keys >>> key) & 1) != 0;
+    }
+
+    static final class ClearScreen extends Instruction { //00E0	Clears the screen.
+        ClearScreen(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.clearPlanes(c.planes);
+            c.ioHandler.onClearScreen();
+            c.pc += 2;
+        }
+    }
+
+    static final class Return extends Instruction { //00EE	Returns from a subroutine.
+        Return(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.stackPointer = (c.stackPointer - 1) & (Chip.STACK_SIZE - 1);
+            c.pc = (char)c.stack[c.stackPointer];
+            c.pc += 2;
+        }
+    }
+
+    static final class Jump extends Instruction { //1NN Jumps to address NNN
+        Jump(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if (nnn <= c.pc)
+                c.loopClosed = true;
+            c.pc = (char)nnn;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return true;
+        }
+    }
+
+    static final class Call extends Instruction { //2NNN	Calls subroutine at NNN.
+        Call(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            // Wraps around rather than overflowing: INVADERS leaks a frame each time it restarts its main loop
+            c.stack[c.stackPointer] = (short)c.pc;
+            c.stackPointer = (c.stackPointer + 1) & (Chip.STACK_SIZE - 1);
+            c.pc = (char)nnn;
+        }
+    }
+
+    static final class SkipEqualImmediate extends Instruction { //3XNN Skips the next instruction if VX equals NN
+        SkipEqualImmediate(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if (c.v(x) == nn)
+                c.pc += 4;
+            else
+                c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return true;
+        }
+    }
+
+    static final class SkipNotEqualImmediate extends Instruction { //4XNN Skips the next instruction if VX doesn't equal NN.
+        SkipNotEqualImmediate(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if (c.v(x) != nn)
+                c.pc += 4;
+            else
+                c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return true;
+        }
+    }
+
+    static final class SkipEqualRegister extends Instruction { //5XY0	Skips the next instruction if VX equals VY.
+        SkipEqualRegister(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if (c.V[x] == c.V[y])
+                c.pc += 4;
+            else
+                c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return true;
+        }
+    }
+
+    static final class LoadImmediate extends Instruction { //6XNN	Sets VX to NN
+        LoadImmediate(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.setV(x, nn);
+            c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return c.v(x) == nn;
+        }
+    }
+
+    static final class AddImmediate extends Instruction { //7XNN Adds NN to VX.
+        AddImmediate(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.setV(x, c.v(x) + nn);
+            c.pc += 2;
+        }
+    }
+
+    static final class Move extends Instruction { // 8XY0	Sets VX to the value of VY.
+        Move(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = c.V[y];
+            c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return c.V[x] == c.V[y];
+        }
+    }
+
+    static final class Or extends Instruction { //8XY1	Sets VX to VX or VY.
+        Or(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = (byte)(c.V[x] | c.V[y]);
+            c.pc += 2;
+        }
+    }
+
+    static final class And extends Instruction { //8XY2	Sets VX to VX and VY.
+        And(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = (byte)(c.V[x] & c.V[y]);
+            c.pc += 2;
+        }
+    }
+
+    static final class Xor extends Instruction { //8XY3	Sets VX to VX xor VY.
+        Xor(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = (byte)(c.V[x] ^ c.V[y]);
+            c.pc += 2;
+        }
+    }
+
+    static final class OrResetFlag extends Instruction { //8XY1	Sets VX to VX or VY, and VF to 0 (COSMAC VIP).
+        OrResetFlag(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = (byte)(c.V[x] | c.V[y]);
+            c.V[0xF] = 0;
+            c.pc += 2;
+        }
+    }
+
+    static final class AndResetFlag extends Instruction { //8XY2	Sets VX to VX and VY, and VF to 0 (COSMAC VIP).
+        AndResetFlag(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = (byte)(c.V[x] & c.V[y]);
+            c.V[0xF] = 0;
+            c.pc += 2;
+        }
+    }
+
+    static final class XorResetFlag extends Instruction { //8XY3	Sets VX to VX xor VY, and VF to 0 (COSMAC VIP).
+        XorResetFlag(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.V[x] = (byte)(c.V[x] ^ c.V[y]);
+            c.V[0xF] = 0;
+            c.pc += 2;
+        }
+    }
+
+    static final class Add extends Instruction { //8XY4	Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
+        Add(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int sum = c.v(x) + c.v(y);
+            c.setV(x, sum);
+            c.setV(0xF, sum > 0xFF ? 1 : 0); // Carry
+            c.pc += 2;
+        }
+    }
+
+    static final class Sub extends Instruction { //8XY5	VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+        Sub(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int vx = c.v(x);
+            int vy = c.v(y);
+            c.setV(x, vx - vy);
+            c.setV(0xF, vy > vx ? 0 : 1); // Borrow
+            c.pc += 2;
+        }
+    }
+
+    static final class ShiftRight extends Instruction { //8XY6	Shifts VX right by one. VF is set to the value of the least significant bit of VX before the shift.
+        ShiftRight(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int value = c.v(x);
+            c.setV(x, value >> 1);
+            c.setV(0xF, value & 0x1);
+            c.pc += 2;
+        }
+    }
+
+    static final class ShiftRightY extends Instruction { //8XY6	Sets VX to VY shifted right by one, VF to the bit shifted out (COSMAC VIP).
+        ShiftRightY(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int value = c.v(y);
+            c.setV(x, value >> 1);
+            c.setV(0xF, value & 0x1);
+            c.pc += 2;
+        }
+    }
+
+    static final class SubReverse extends Instruction { //8XY7	Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+        SubReverse(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int vx = c.v(x);
+            int vy = c.v(y);
+            c.setV(x, vy - vx);
+            c.setV(0xF, vx > vy ? 0 : 1); // Borrow
+            c.pc += 2;
+        }
+    }
+
+    static final class ShiftLeft extends Instruction { //8XYE	Shifts VX left by one. VF is set to the value of the most significant bit of VX before the shift.
+        ShiftLeft(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int value = c.v(x);
+            c.setV(x, value << 1);
+            c.setV(0xF, (value >> 7) & 0x1);
+            c.pc += 2;
+        }
+    }
+
+    static final class ShiftLeftY extends Instruction { //8XYE	Sets VX to VY shifted left by one, VF to the bit shifted out (COSMAC VIP).
+        ShiftLeftY(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int value = c.v(y);
+            c.setV(x, value << 1);
+            c.setV(0xF, (value >> 7) & 0x1);
+            c.pc += 2;
+        }
+    }
+
+    static final class SkipNotEqualRegister extends Instruction { //9XY0	Skips the next instruction if VX doesn't equal VY.
+        SkipNotEqualRegister(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if (c.V[x] == c.V[y])
+                c.pc += 2;
+            else
+                c.pc += 4;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return true;
+        }
+    }
+
+    static final class LoadIndex extends Instruction { //ANNN	Sets I to the address NNN.
+        LoadIndex(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.I = (char)nnn;
+            c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return c.I == nnn;
+        }
+    }
+
+    static final class JumpOffset extends Instruction { //BNNN	Jumps to the address NNN plus V0.
+        // Register added to NNN and extra offset, resolved from the quirks profile
+        private final int register;
+        private final int offset;
+
+        JumpOffset(char opcode, Quirks.JumpOffset quirk){
+            super(opcode);
+            register = quirk == Quirks.JumpOffset.VX ? x : 0;
+            offset   = quirk == Quirks.JumpOffset.V0_PLUS_2 ? 2 : 0;
+        }
+
+        @Override
+        void execute(Chip c) {
+            c.pc = (char)(c.v(register) + nnn + offset);
+        }
+    }
+
+    static final class Random extends Instruction { // CXNN	Sets VX to a random number, masked by NN.
+        Random(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.setV(x, c.rnd.nextInt(0xFF) & nn);
+            c.pc += 2;
+        }
+    }
+
+    static final class Draw extends Instruction {
+        // DXYN Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels.
+        // Sprites stored in memory at location in index register (I).
+        // Maximum 8bits wide.
+        // Wraps around the screen.
+        // If when drawn, clears a pixel, register VF is set to 1 otherwise it is zero.
+        // All drawing is XOR drawing (i.e. it toggles the screen pixels)
+        Draw(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            draw(c, this, false);
+        }
+    }
+
+    static final class ClippedDraw extends Instruction { // DXYN, the parts of the sprite past the edges are dropped
+        ClippedDraw(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            draw(c, this, true);
+        }
+    }
+
+    /**
+     * DXYN on the 64x32 screen. Called with a constant <code>clip</code>, so each
+     * caller gets its own specialized copy once inlined.
+     */
+    private static void draw(Chip c, Instruction op, boolean clip) {
+        // The origin always wraps; past it columns rotate within the row word (or are shifted out),
+        // rows wrap modulo the height (or stop at the bottom)
+        int shift = c.v(op.x) & (Chip.SCREEN_WIDTH - 1);
+        int top = c.v(op.y) & (Chip.SCREEN_HEIGHT - 1);
+        int rows = clip ? Math.min(op.n, Chip.SCREEN_HEIGHT - top) : op.n;
+        long[] lcd = c.lcd;
+        Memory memory = c.memory;
+        boolean collision = false;
+        int toggled = 0;
+
+        for(int yline = 0; yline < rows; yline++) {
+            long bits = (long)memory.read(c.I + yline) << 56;
+            long sprite = clip ? bits >>> shift : Long.rotateRight(bits, shift);
+            int row = ((top + yline) & (Chip.SCREEN_HEIGHT - 1)) * Chip.ROW_WORDS;
+
+            collision |= (lcd[row] & sprite) != 0;
+            lcd[row] ^= sprite;
+            toggled += Long.bitCount(sprite);
+        }
+        c.setV(0xF, collision ? 1 : 0);
+        c.counters.drawCalls++;
+        c.counters.pixelsToggled += toggled;
+        c.pc += 2;
+
+        // A wrapped sprite dirties the whole width (or height)
+        boolean wrapsX = shift + 8 > Chip.SCREEN_WIDTH;
+        boolean wrapsY = top + rows > Chip.SCREEN_HEIGHT;
+        c.markDirty(wrapsX ? (clip ? shift : 0) : shift, wrapsY ? 0 : top,
+                wrapsX ? Chip.SCREEN_WIDTH : shift + 8, wrapsY ? Chip.SCREEN_HEIGHT : top + rows);
+    }
+
+    static final class ExtendedDraw extends Instruction {
+        // DXYN in SUPER-CHIP and XO-CHIP: the screen may be 128x64 and DXY0 draws a 16x16 sprite.
+        // Each selected bitplane consumes its own sprite data, one after the other.
+        ExtendedDraw(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            extendedDraw(c, this, false);
+        }
+    }
+
+    static final class ClippedExtendedDraw extends Instruction { // DXYN in SUPER-CHIP and XO-CHIP, clipped at the edges
+        ClippedExtendedDraw(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            extendedDraw(c, this, true);
+        }
+    }
+
+    /**
+     * DXYN in any resolution, wrapping or clipping according to the constant <code>clip</code>.
+     */
+    private static void extendedDraw(Chip c, Instruction op, boolean clip) {
+        int width  = c.width;
+        int height = c.height;
+        int spriteWidth = op.n == 0 ? 16 : 8;
+        int spriteRows = op.n == 0 ? 16 : op.n;
+        int left = c.v(op.x) & (width - 1);
+        int top  = c.v(op.y) & (height - 1);
+        int rows = clip ? Math.min(spriteRows, height - top) : spriteRows;
+        long[] lcd = c.lcd;
+        Memory memory = c.memory;
+        int address = c.I;
+        boolean collision = false;
+        int toggled = 0;
+
+        for (int plane = 0; plane < Chip.PLANES; plane++) {
+            if ((c.planes & (1 << plane)) == 0)
+                continue;
+            int base = plane * Chip.PLANE_WORDS;
+            for (int line = 0; line < rows; line++) {
+                long bits = memory.read(address++);
+                if (spriteWidth == 16)
+                    bits = (bits << 8) | memory.read(address++);
+                bits <<= 64 - spriteWidth;
+                int at = base + ((top + line) & (height - 1)) * Chip.ROW_WORDS;
+
+                if (width == Chip.SCREEN_WIDTH) {
+                    long sprite = clip ? bits >>> left : Long.rotateRight(bits, left);
+                    collision |= (lcd[at] & sprite) != 0;
+                    lcd[at] ^= sprite;
+                    toggled += Long.bitCount(sprite);
+                } else {
+                    // Shifts (or rotates) the sprite within the 128 bits of the row
+                    long hi = bits, lo = 0;
+                    int shift = left;
+                    if (shift >= 64) {
+                        lo = hi;
+                        hi = 0;
+                        shift -= 64;
+                    }
+                    if (shift != 0) {
+                        long carry = hi << (64 - shift);
+                        hi = (hi >>> shift) | (clip ? 0 : lo << (64 - shift));
+                        lo = (lo >>> shift) | carry;
+                    }
+                    collision |= ((lcd[at] & hi) | (lcd[at + 1] & lo)) != 0;
+                    lcd[at]     ^= hi;
+                    lcd[at + 1] ^= lo;
+                    toggled += Long.bitCount(hi) + Long.bitCount(lo);
+                }
+            }
+            // Sprite data of clipped rows is skipped all the same
+            address += (spriteRows - rows) * (spriteWidth / 8);
+        }
+        c.setV(0xF, collision ? 1 : 0);
+        c.counters.drawCalls++;
+        c.counters.pixelsToggled += toggled;
+        c.pc += 2;
+
+        // A wrapped sprite dirties the whole width (or height)
+        boolean wrapsX = left + spriteWidth > width;
+        boolean wrapsY = top + rows > height;
+        c.markDirty(wrapsX ? (clip ? left : 0) : left, wrapsY ? 0 : top,
+                wrapsX ? width : left + spriteWidth, wrapsY ? height : top + rows);
+    }
+
+    static final class SkipKeyPressed extends Instruction { //EX9E	Skips the next instruction if the key stored in VX is pressed.
+        SkipKeyPressed(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if(pressed(c.keys(), c.v(x)))
+                c.pc += 4;
+            else
+                c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return c.keysSettled();
+        }
+    }
+
+    static final class SkipKeyNotPressed extends Instruction { //EXA1	Skips the next instruction if the key stored in VX isn't pressed.
+        SkipKeyNotPressed(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            if(!pressed(c.keys(), c.v(x)))
+                c.pc += 4;
+            else
+                c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return c.keysSettled();
+        }
+    }
+
+    static final class GetDelay extends Instruction { //FX07	Sets VX to the value of the delay timer.
+        GetDelay(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.setV(x, c.delay_t);
+            c.pc += 2;
+        }
+
+        @Override
+        boolean idle(Chip c) {
+            return c.v(x) == c.delay_t;
+        }
+    }
+
+    static final class WaitKey extends Instruction { //FX0A	A key press is awaited, and then stored in VX.
+        WaitKey(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int keys = c.keys();
+            c.waitingForKey = keys == 0;
+            if(keys != 0) {
+                c.setV(x, Integer.numberOfTrailingZeros(keys));
+                c.pc += 2;
+            }
+        }
+    }
+
+    static final class SetDelay extends Instruction { //FX15	Sets the delay timer to VX.
+        SetDelay(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.delay_t = c.v(x);
+            c.pc += 2;
+        }
+    }
+
+    static final class SetSound extends Instruction { //FX18	Sets the sound timer to VX.
+        SetSound(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.delay_s = c.v(x);
+            c.pc += 2;
+        }
+    }
+
+    static final class AddIndex extends Instruction { //FX1E	Adds VX to I.
+        AddIndex(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.I += c.v(x);
+            c.pc += 2;
+        }
+    }
+
+    static final class AddIndexSetFlag extends Instruction { //FX1E	Adds VX to I, VF is set when I goes past the memory.
+        AddIndexSetFlag(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int index = c.I + c.v(x);
+            c.I = (char)index;
+            c.setV(0xF, index > Chip.MEM_SIZE ? 1 : 0);
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadFont extends Instruction { //FX29	Sets I to the location of the sprite for the character in VX.
+                                                      // Characters 0-F (in hexadecimal) are represented by a 4x5 font.
+        LoadFont(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.I = (char)(c.v(x) * 5);
+            c.pc += 2;
+        }
+    }
+
+    static final class StoreBCD extends Instruction {
+        // FX33	Stores the Binary-coded decimal representation of VX,
+        // with the most significant of three digits at the address in I,
+        // the middle digit at I plus 1, and the least significant digit at I plus 2.
+        // (In other words, take the decimal representation of VX, place the hundreds digit in memory
+        // at location in I, the tens digit at location I+1, and the ones digit at location I+2.)
+        StoreBCD(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            Memory memory = c.memory;
+            int i = c.I;
+            int value = c.v(x);
+            memory.write(i,     value / 100);
+            memory.write(i + 1, (value / 10) % 10);
+            memory.write(i + 2, value % 10);
+            c.invalidate(i, 3);
+            c.pc += 2;
+        }
+    }
+
+    private static int increment(int x, Quirks.IndexIncrement quirk){
+        switch (quirk) {
+            case NONE: return 0;
+            case X:    return x;
+            default:   return x + 1;
+        }
+    }
+
+    static final class StoreRegisters extends Instruction { //FX55	Stores V0 to VX in memory starting at address I.
+        // On the original interpreter, when the operation is done, I = I + X + 1.
+        private final int increment;
+
+        StoreRegisters(char opcode, Quirks.IndexIncrement quirk){
+            super(opcode);
+            increment = increment(x, quirk);
+        }
+
+        @Override
+        void execute(Chip c) {
+            c.memory.write(c.I, c.V, 0, x + 1);
+            c.invalidate(c.I, x + 1);
+            c.I += increment;
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadRegisters extends Instruction { //FX65	Fills V0 to VX with values from memory starting at address I.
+        private final int increment;
+
+        LoadRegisters(char opcode, Quirks.IndexIncrement quirk){
+            super(opcode);
+            increment = increment(x, quirk);
+        }
+
+        @Override
+        void execute(Chip c) {
+            c.memory.read(c.I, c.V, 0, x + 1);
+            c.I += increment;
+            c.pc += 2;
+        }
+    }
+
+    static final class ScrollDown extends Instruction { //00CN	Scrolls the display down by N rows.
+        ScrollDown(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.scrollVertical(n);
+            c.pc += 2;
+        }
+    }
+
+    static final class ScrollUp extends Instruction { //00DN	Scrolls the display up by N rows.
+        ScrollUp(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.scrollVertical(-n);
+            c.pc += 2;
+        }
+    }
+
+    static final class ScrollRight extends Instruction { //00FB	Scrolls the display right by 4 pixels.
+        ScrollRight(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.scrollHorizontal(4);
+            c.pc += 2;
+        }
+    }
+
+    static final class ScrollLeft extends Instruction { //00FC	Scrolls the display left by 4 pixels.
+        ScrollLeft(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.scrollHorizontal(-4);
+            c.pc += 2;
+        }
+    }
+
+    static final class Exit extends Instruction { //00FD	Exits the interpreter: the program counter stays here for good.
+        Exit(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+        }
+    }
+
+    static final class LowResolution extends Instruction { //00FE	Switches to the 64x32 mode.
+        LowResolution(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.setResolution(false);
+            c.pc += 2;
+        }
+    }
+
+    static final class HighResolution extends Instruction { //00FF	Switches to the 128x64 mode.
+        HighResolution(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.setResolution(true);
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadBigFont extends Instruction { //FX30	Sets I to the location of the 8x10 sprite for the digit in VX.
+        LoadBigFont(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.I = (char)(Chip.BIG_FONT_ADDRESS + (c.v(x) & 0xF) * 10);
+            c.pc += 2;
+        }
+    }
+
+    static final class StoreFlags extends Instruction { //FX75	Stores V0 to VX in the RPL user flags.
+        StoreFlags(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            System.arraycopy(c.V, 0, c.flags, 0, Math.min(x + 1, c.flags.length));
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadFlags extends Instruction { //FX85	Fills V0 to VX from the RPL user flags.
+        LoadFlags(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            System.arraycopy(c.flags, 0, c.V, 0, Math.min(x + 1, c.flags.length));
+            c.pc += 2;
+        }
+    }
+
+    static final class StoreRange extends Instruction { //5XY2	Stores VX to VY in memory starting at address I, I is unchanged.
+        StoreRange(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int step = x <= y ? 1 : -1;
+            int count = Math.abs(y - x) + 1;
+            for (int i = 0; i < count; i++)
+                c.memory.write(c.I + i, c.V[x + i * step]);
+            c.invalidate(c.I, count);
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadRange extends Instruction { //5XY3	Fills VX to VY from memory starting at address I, I is unchanged.
+        LoadRange(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            int step = x <= y ? 1 : -1;
+            int count = Math.abs(y - x) + 1;
+            for (int i = 0; i < count; i++)
+                c.setV(x + i * step, c.memory.read(c.I + i));
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadLongIndex extends Instruction { //F000 NNNN	Sets I to the address NNNN stored in the next two bytes.
+        LoadLongIndex(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.I = (char)((c.memory.read(c.pc + 2) << 8) | c.memory.read(c.pc + 3));
+            c.pc += 4;
+        }
+    }
+
+    static final class SelectPlanes extends Instruction { //FN01	Selects the bitplanes N.
+        SelectPlanes(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.planes = x & 0x3;
+            c.pc += 2;
+        }
+    }
+
+    static final class LoadAudioPattern extends Instruction { //F002	Loads the 16 bytes audio pattern at I.
+        LoadAudioPattern(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            for (int i = 0; i < c.audioPattern.length; i++)
+                c.audioPattern[i] = (byte)c.memory.read(c.I + i);
+            c.pc += 2;
+        }
+    }
+
+    static final class SetPitch extends Instruction { //FX3A	Sets the audio pattern playback pitch to VX.
+        SetPitch(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.pitch = c.v(x);
+            c.pc += 2;
+        }
+    }
+
+    static final class LongSkip extends Instruction {
+        // XO-CHIP skips jump over F000 NNNN as a whole, i.e. 4 bytes
+        final Instruction skip;
+
+        LongSkip(Instruction skip){
+            super(skip.opcode);
+            this.skip = skip;
+        }
+
+        static boolean skips(Instruction op){
+            return op instanceof SkipEqualImmediate
+                    || op instanceof SkipNotEqualImmediate
+                    || op instanceof SkipEqualRegister
+                    || op instanceof SkipNotEqualRegister
+                    || op instanceof SkipKeyPressed
+                    || op instanceof SkipKeyNotPressed;
+        }
+
+        @Override
+        void execute(Chip c) {
+            char next = (char)(c.pc + 2);
+            skip.execute(c);
+            if (c.pc == (char)(next + 2) && c.memory.read(next) == 0xF0 && c.memory.read(next + 1) == 0x00)
+                c.pc += 2;
+        }
+    }
+
+    static final class Ignored extends Instruction { // Opcodes with no effect, not even on the program counter
+        Ignored(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+        }
+    }
+
+    static final class Unsupported extends Instruction { // Halts the machine, see Chip.haltedAt()
+        Unsupported(char opcode){ super(opcode); }
+
+        @Override
+        void execute(Chip c) {
+            c.haltedAt = c.pc;
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package com.github.taganaka.chip8j.chip;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Created by francescolaurita on 7/7/15.
  */
 public class KeyMap {
-    Map map;
+    // Keypad key by key code, -1 when not mapped
+    private final byte[] keys = new byte[256];
+
     public KeyMap(){
         /**
          * Keypad                 Keyboard
@@ -21,26 +22,33 @@ public class KeyMap {
          |A|0|B|F|                |Z|X|C|V|
          +-+-+-+-+                +-+-+-+-+
          */
-        map = new HashMap<Integer, Integer>();
-        map.put((int)'1', 0x1);
-        map.put((int)'2', 0x2);
-        map.put((int)'3', 0x3);
-        map.put((int)'4', 0xC);
-        map.put((int)'Q', 0x4);
-        map.put((int)'W', 0x5);
-        map.put((int)'E', 0x6);
-        map.put((int)'R', 0xD);
-        map.put((int)'A', 0x7);
-        map.put((int)'S', 0x8);
-        map.put((int)'D', 0x9);
-        map.put((int)'F', 0xE);
-        map.put((int)'Z', 0xA);
-        map.put((int)'X', 0x0);
-        map.put((int)'C', 0xB);
-        map.put((int)'V', 0xF);
+        Arrays.fill(keys, (byte)-1);
+        put('1', 0x1);
+        put('2', 0x2);
+        put('3', 0x3);
+        put('4', 0xC);
+        put('Q', 0x4);
+        put('W', 0x5);
+        put('E', 0x6);
+        put('R', 0xD);
+        put('A', 0x7);
+        put('S', 0x8);
+        put('D', 0x9);
+        put('F', 0xE);
+        put('Z', 0xA);
+        put('X', 0x0);
+        put('C', 0xB);
+        put('V', 0xF);
+    }
+
+    private void put(char keyCode, int key){
+        keys[keyCode] = (byte)key;
     }
 
-    public Map<Integer, Integer> map(){
-        return map;
+    /**
+     * The keypad key mapped to the AWT key code <code>keyCode</code>, or -1.
+     */
+    public int key(int keyCode){
+        return keyCode >= 0 && keyCode < keys.length ? keys[keyCode] : -1;
     }
 }
@@ -0,0 +1,108 @@
+package com.github.taganaka.chip8j.chip;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of the 16 keys, fed by one input thread and read by the emulator thread.
+ * Bit k of the mask is set while key k is pressed.
+ *
+ * Every press and release is queued, as the resulting mask, in a lock-free single
+ * producer / single consumer ring. The emulator takes one event each time the program
+ * reads the keys, so a tap shorter than the interval between two reads is still seen,
+ * and each change is reported with the cycle of the instruction that read it
+ * (see {@link Chip.InputListener}). When the ring is full the new changes are dropped
+ * rather than queued, and the program sees the latest mask once it has read the queued ones.
+ */
+public class Keypad {
+
+    static final int CAPACITY = 64;
+    private static final int INDEX_MASK = CAPACITY - 1;
+
+    private final int[] events = new int[CAPACITY];
+    // Next event to read, written by the emulator thread only
+    private final AtomicLong head = new AtomicLong();
+    // Next event to write, written by the input thread only
+    private final AtomicLong tail = new AtomicLong();
+    // Mask after the last press or release, input thread side
+    private volatile int latest;
+    // Mask seen by the program, emulator thread side
+    private int current;
+    private volatile Runnable wakeup;
+
+    /**
+     * Input thread: queues the press of key <code>key</code>.
+     */
+    public void press(int key){
+        publish(latest | (1 << key));
+    }
+
+    /**
+     * Input thread: queues the release of key <code>key</code>.
+     */
+    public void release(int key){
+        publish(latest & ~(1 << key));
+    }
+
+    private void publish(int keys){
+        if (keys == latest)
+            return;
+        latest = keys;
+        long t = tail.get();
+        if (t - head.get() < CAPACITY) {
+            events[(int)t & INDEX_MASK] = keys;
+            tail.lazySet(t + 1);
+        }
+        Runnable r = wakeup;
+        if (r != null)
+            r.run();
+    }
+
+    /**
+     * Emulator thread: moves to the next queued mask, if any, and returns the mask seen by the program.
+     */
+    int poll(){
+        long h = head.get();
+        if (h != tail.get()) {
+            current = events[(int)h & INDEX_MASK];
+            head.lazySet(h + 1);
+        } else {
+            current = latest;
+        }
+        return current;
+    }
+
+    /**
+     * Whether a change is queued that the program hasn't seen yet.
+     */
+    public boolean hasPending(){
+        return head.get() != tail.get() || latest != current;
+    }
+
+    public boolean isPressed(int key){
+        return key < Chip.KEYS_SIZE && ((current >>> key) & 1) != 0;
+    }
+
+    /**
+     * The mask as last seen by the program.
+     */
+    public int mask(){
+        return current;
+    }
+
+    /**
+     * Emulator thread (or while the machine isn't running): sets the mask seen
+     * by the program right away, dropping the queued changes.
+     */
+    public void setMask(int keys){
+        current = latest = keys & 0xFFFF;
+        head.set(tail.get());
+    }
+
+    /**
+     * Called by the input thread after every change, e.g. to resume a machine
+     * waiting for a key (see {@link Chip#waitingForKey()}). Must not block.
+     */
+    public void setWakeup(Runnable wakeup){
+        this.wakeup = wakeup;
+    }
+}
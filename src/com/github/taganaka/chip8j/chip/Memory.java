@@ -0,0 +1,163 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Machine memory split in 256 bytes pages, each with the decoded instructions
+ * starting in it.
+ *
+ * Pages can be shared between forked machines: a page (or its decoded instructions)
+ * marked as shared is copied the first time the owner writes to it, so forks share
+ * the ROM and only pay for what they modify. Sharing is not reference counted: after
+ * a fork both sides copy a page on their next write to it.
+ */
+final class Memory {
+
+    static final int PAGE_BITS = 8;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int size;
+    private final byte[][] pages;
+    private final boolean[] sharedPages;
+    private final Instruction[][] decoded;
+    private final boolean[] sharedDecoded;
+
+    Memory(int size){
+        int count = size >> PAGE_BITS;
+        this.size = size;
+        pages         = new byte[count][PAGE_SIZE];
+        sharedPages   = new boolean[count];
+        decoded       = new Instruction[count][PAGE_SIZE];
+        sharedDecoded = new boolean[count];
+    }
+
+    private Memory(Memory parent){
+        int count = parent.pages.length;
+        size          = parent.size;
+        pages         = parent.pages.clone();
+        decoded       = parent.decoded.clone();
+        sharedPages   = new boolean[count];
+        sharedDecoded = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            sharedPages[i]   = parent.sharedPages[i]   = true;
+            sharedDecoded[i] = parent.sharedDecoded[i] = true;
+        }
+    }
+
+    /**
+     * Returns a copy of this memory sharing every page with it.
+     * Neither side may be running while forking.
+     */
+    Memory fork(){
+        return new Memory(this);
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * The byte at <code>address</code>, zero-extended.
+     */
+    int read(int address){
+        return pages[address >> PAGE_BITS][address & PAGE_MASK] & 0xFF;
+    }
+
+    /**
+     * Stores the low 8 bits of <code>value</code> at <code>address</code>.
+     */
+    void write(int address, int value){
+        int page = address >> PAGE_BITS;
+        if (sharedPages[page])
+            ownPage(page);
+        pages[page][address & PAGE_MASK] = (byte)value;
+    }
+
+    /**
+     * Copies <code>length</code> bytes starting at <code>address</code> into <code>dst</code>.
+     */
+    void read(int address, byte[] dst, int offset, int length){
+        while (length > 0) {
+            int at = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - at);
+            System.arraycopy(pages[address >> PAGE_BITS], at, dst, offset, count);
+            address += count;
+            offset  += count;
+            length  -= count;
+        }
+    }
+
+    /**
+     * Copies <code>length</code> bytes of <code>src</code> to memory starting at <code>address</code>.
+     */
+    void write(int address, byte[] src, int offset, int length){
+        while (length > 0) {
+            int page = address >> PAGE_BITS;
+            int at = address & PAGE_MASK;
+            int count = Math.min(length, PAGE_SIZE - at);
+            if (sharedPages[page])
+                ownPage(page);
+            System.arraycopy(src, offset, pages[page], at, count);
+            address += count;
+            offset  += count;
+            length  -= count;
+        }
+    }
+
+    /**
+     * Maps <code>src</code> as the pages starting at <code>address</code>, which must be page aligned.
+     * They are shared like the pages of a fork, so <code>src</code> is never written.
+     */
+    void share(int address, byte[][] src){
+        int first = address >> PAGE_BITS;
+        for (int i = 0; i < src.length; i++) {
+            pages[first + i] = src[i];
+            sharedPages[first + i] = true;
+        }
+    }
+
+    Instruction instruction(int address){
+        return decoded[address >> PAGE_BITS][address & PAGE_MASK];
+    }
+
+    /**
+     * Caches the decoded instruction at <code>address</code>. Filling a shared page is fine:
+     * writing any byte an instruction of the page is decoded from makes the page private
+     * first (see {@link #invalidate(int, int)}), so every machine sharing it holds the same bytes.
+     */
+    void setInstruction(int address, Instruction op){
+        decoded[address >> PAGE_BITS][address & PAGE_MASK] = op;
+    }
+
+    /**
+     * Drops the decoded instructions in [from, to).
+     */
+    void invalidate(int from, int to){
+        for (int address = from; address < to; address++) {
+            int page = address >> PAGE_BITS;
+            if (sharedDecoded[page])
+                ownDecoded(page);
+            decoded[page][address & PAGE_MASK] = null;
+        }
+    }
+
+    /**
+     * Number of pages currently shared with another machine.
+     */
+    int sharedPages(){
+        int count = 0;
+        for (boolean shared : sharedPages)
+            if (shared)
+                count++;
+        return count;
+    }
+
+    private void ownPage(int page){
+        pages[page] = pages[page].clone();
+        sharedPages[page] = false;
+    }
+
+    private Instruction[] ownDecoded(int page){
+        sharedDecoded[page] = false;
+        return decoded[page] = decoded[page].clone();
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Behaviour profiles for the opcodes interpreters never agreed on.
+ *
+ * A profile is resolved once, when instructions are decoded: each quirk selects a
+ * different handler class (or a constant operand of it), so the interpreter loop and
+ * the handlers never test a quirk while running.
+ */
+public enum Quirks {
+
+    /**
+     * The behaviour of earlier versions of this emulator, kept as the CHIP-8 default
+     * so existing recordings keep replaying: FX55/FX65 increment I, shifts work on VX,
+     * BNNN lands 2 bytes past V0 + NNN, FX1E sets VF on overflow, sprites wrap.
+     */
+    LEGACY(IndexIncrement.X_PLUS_1, false, JumpOffset.V0_PLUS_2, true, false, false),
+
+    /**
+     * The original COSMAC VIP interpreter: FX55/FX65 increment I, shifts read VY,
+     * 8XY1/8XY2/8XY3 reset VF, sprites are clipped at the screen edges.
+     */
+    COSMAC_VIP(IndexIncrement.X_PLUS_1, true, JumpOffset.V0, false, true, true),
+
+    /**
+     * CHIP-48 on the HP-48: FX55/FX65 increment I by X only, shifts work on VX,
+     * BXNN jumps to VX + XNN, sprites are clipped.
+     */
+    CHIP_48(IndexIncrement.X, false, JumpOffset.VX, false, false, true),
+
+    /**
+     * SUPER-CHIP 1.1: FX55/FX65 leave I alone, shifts work on VX, BXNN jumps to VX + XNN,
+     * sprites are clipped.
+     */
+    SUPER_CHIP(IndexIncrement.NONE, false, JumpOffset.VX, false, false, true),
+
+    /**
+     * XO-CHIP (Octo): FX55/FX65 increment I, shifts read VY, sprites wrap.
+     */
+    XO_CHIP(IndexIncrement.X_PLUS_1, true, JumpOffset.V0, false, false, false);
+
+    /**
+     * How FX55/FX65 move I.
+     */
+    public enum IndexIncrement { NONE, X, X_PLUS_1 }
+
+    /**
+     * Target of BNNN.
+     */
+    public enum JumpOffset { V0, V0_PLUS_2, VX }
+
+    final IndexIncrement indexIncrement;
+    final boolean shiftReadsVY;
+    final JumpOffset jumpOffset;
+    final boolean indexOverflowSetsVF;
+    final boolean logicResetsVF;
+    final boolean clipSprites;
+
+    Quirks(IndexIncrement indexIncrement, boolean shiftReadsVY, JumpOffset jumpOffset,
+           boolean indexOverflowSetsVF, boolean logicResetsVF, boolean clipSprites){
+        this.indexIncrement      = indexIncrement;
+        this.shiftReadsVY        = shiftReadsVY;
+        this.jumpOffset          = jumpOffset;
+        this.indexOverflowSetsVF = indexOverflowSetsVF;
+        this.logicResetsVF       = logicResetsVF;
+        this.clipSprites         = clipSprites;
+    }
+
+    /**
+     * The profile machines of the given instruction set get unless told otherwise.
+     */
+    public static Quirks defaultFor(InstructionSet set){
+        switch (set) {
+            case SUPER_CHIP: return SUPER_CHIP;
+            case XO_CHIP:    return XO_CHIP;
+            default:         return LEGACY;
+        }
+    }
+
+    public IndexIncrement indexIncrement(){
+        return indexIncrement;
+    }
+
+    public boolean shiftReadsVY(){
+        return shiftReadsVY;
+    }
+
+    public JumpOffset jumpOffset(){
+        return jumpOffset;
+    }
+
+    public boolean indexOverflowSetsVF(){
+        return indexOverflowSetsVF;
+    }
+
+    public boolean logicResetsVF(){
+        return logicResetsVF;
+    }
+
+    public boolean clipSprites(){
+        return clipSprites;
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * Compiler tier on top of the decode cache.
+ *
+ * Counts how often each address is reached and, once an address gets hot, compiles the
+ * straight-line block starting there into a JVM class (see {@link BlockCompiler}).
+ * A block ends after the first instruction that may leave the straight line: jumps, calls,
+ * returns, skips, and the FX33/FX55/5XY2 memory writes that could patch the code itself.
+ * Instructions reading the keypad are left to the interpreter, so that key reads are
+ * stamped with their exact cycle (see {@link Chip.InputListener}), and so is the
+ * 4 bytes long F000 NNNN.
+ */
+class Recompiler {
+
+    // Executions of an address before its block gets compiled
+    static final int HOT_THRESHOLD = 32;
+    // Longest block, in instructions
+    static final int MAX_BLOCK_LENGTH = 64;
+
+    // Marks an address whose block is not worth (or failed) compiling
+    private static final int COLD = -1;
+
+    private final Chip chip;
+    private final Block[] blocks;
+    private final int[] heat;
+
+    Recompiler(Chip chip, int memorySize){
+        this.chip   = chip;
+        this.blocks = new Block[memorySize];
+        this.heat   = new int[memorySize];
+    }
+
+    /**
+     * Returns the compiled block starting at <code>address</code>, compiling it once it gets hot.
+     * @return the block, or null when the interpreter should handle this address
+     */
+    Block blockAt(int address){
+        Block block = blocks[address];
+        if (block != null)
+            return block;
+
+        int h = heat[address];
+        if (h == COLD)
+            return null;
+        if (h < HOT_THRESHOLD) {
+            heat[address] = h + 1;
+            return null;
+        }
+        return blocks[address] = compile(address);
+    }
+
+    /**
+     * Drops the blocks overlapping <code>length</code> bytes written at <code>address</code>.
+     */
+    void invalidate(int address, int length){
+        int from = Math.max(address - MAX_BLOCK_LENGTH * 2 + 1, 0);
+        int to   = Math.min(address + length, blocks.length);
+        for (int i = from; i < to; i++) {
+            Block block = blocks[i];
+            if (block != null && block.end > address)
+                blocks[i] = null;
+            if (i >= address - 1)
+                heat[i] = 0;
+        }
+    }
+
+    private Block compile(int address){
+        int count = 0;
+        Instruction[] ops = new Instruction[MAX_BLOCK_LENGTH];
+        for (int pc = address; count < MAX_BLOCK_LENGTH && pc + 1 < blocks.length; pc += 2) {
+            Instruction op = chip.instructionAt(pc);
+            if (unsafe(op))
+                break;
+            ops[count++] = op;
+            if (terminates(op))
+                break;
+        }
+
+        // A single instruction gains nothing over the interpreter
+        if (count < 2) {
+            heat[address] = COLD;
+            return null;
+        }
+
+        Instruction[] block = new Instruction[count];
+        System.arraycopy(ops, 0, block, 0, count);
+        try {
+            return BlockCompiler.compile(block, address);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Unable to compile block at " + Integer.toHexString(address) + ": " + e);
+            heat[address] = COLD;
+            return null;
+        }
+    }
+
+    /**
+     * Instructions left to the interpreter: the ones never advancing the
+     * program counter, keypad reads, and the ones not 2 bytes long.
+     */
+    private static boolean unsafe(Instruction op){
+        if (op instanceof Instructions.LongSkip)
+            return unsafe(((Instructions.LongSkip)op).skip);
+        return op instanceof Instructions.Ignored
+                || op instanceof Instructions.Unsupported
+                || op instanceof Instructions.Exit
+                || op instanceof Instructions.LoadLongIndex
+                || op instanceof Instructions.SkipKeyPressed
+                || op instanceof Instructions.SkipKeyNotPressed
+                || op instanceof Instructions.WaitKey;
+    }
+
+    private static boolean terminates(Instruction op){
+        return op instanceof Instructions.Jump
+                || op instanceof Instructions.LongSkip
+                || op instanceof Instructions.StoreRange
+                || op instanceof Instructions.Call
+                || op instanceof Instructions.Return
+                || op instanceof Instructions.JumpOffset
+                || op instanceof Instructions.SkipEqualImmediate
+                || op instanceof Instructions.SkipNotEqualImmediate
+                || op instanceof Instructions.SkipEqualRegister
+                || op instanceof Instructions.SkipNotEqualRegister
+                || op instanceof Instructions.StoreBCD
+                || op instanceof Instructions.StoreRegisters;
+    }
+}
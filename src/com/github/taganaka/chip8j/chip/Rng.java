@@ -0,0 +1,49 @@
+package com.github.taganaka.chip8j.chip;
+
+/**
+ * The linear congruential generator of {@link java.util.Random}, with its
+ * 48 bits state exposed so it can be saved and restored with the machine.
+ * Given the same seed it yields the same sequence as java.util.Random.
+ */
+final class Rng {
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND     = 0xBL;
+    private static final long MASK       = (1L << 48) - 1;
+
+    private long state;
+
+    Rng(long seed){
+        setSeed(seed);
+    }
+
+    void setSeed(long seed){
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    long state(){
+        return state;
+    }
+
+    void setState(long state){
+        this.state = state & MASK;
+    }
+
+    private int next(int bits){
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int)(state >>> (48 - bits));
+    }
+
+    /**
+     * Same contract as {@link java.util.Random#nextInt(int)}.
+     */
+    int nextInt(int bound){
+        int r = next(31);
+        int m = bound - 1;
+        if ((bound & m) == 0)
+            return (int)((bound * (long)r) >> 31);
+        for (int u = r; u - (r = u % bound) + m < 0; u = next(31))
+            ;
+        return r;
+    }
+}
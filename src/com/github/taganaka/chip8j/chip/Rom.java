@@ -0,0 +1,150 @@
+package com.github.taganaka.chip8j.chip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Immutable program image, loaded with {@link Chip#loadROM(Rom)}.
+ *
+ * The image is kept split in memory pages: machines loading it share those pages
+ * and copy one only when the program writes to it, so any number of instances
+ * can run the same ROM from a single copy.
+ */
+public final class Rom {
+
+    /**
+     * The largest image any instruction set can load.
+     */
+    public static final int MAX_SIZE = Chip.XO_MEM_SIZE - Chip.INIT_PADDING;
+
+    private final String name;
+    private final int size;
+    private final byte[][] pages;
+
+    private Rom(String name, ByteBuffer image){
+        this.name = name;
+        this.size = image.remaining();
+        pages = new byte[(size + Memory.PAGE_SIZE - 1) >> Memory.PAGE_BITS][Memory.PAGE_SIZE];
+        ByteBuffer in = image.duplicate();
+        for (byte[] page : pages)
+            in.get(page, 0, Math.min(Memory.PAGE_SIZE, in.remaining()));
+    }
+
+    /**
+     * A ROM holding a copy of <code>image</code>.
+     */
+    public static Rom of(String name, byte[] image) throws RomLoadException {
+        return of(name, ByteBuffer.wrap(image));
+    }
+
+    /**
+     * A ROM holding a copy of the bytes remaining in <code>image</code>, whose position is left untouched.
+     */
+    public static Rom of(String name, ByteBuffer image) throws RomLoadException {
+        checkSize(name, image.remaining());
+        return new Rom(name, image);
+    }
+
+    /**
+     * Reads a ROM file, mapping it when it lives on the default file system.
+     */
+    public static Rom load(Path path) throws RomLoadException {
+        String name = path.getFileName() != null ? path.getFileName().toString() : path.toString();
+        try {
+            if (path.getFileSystem() == FileSystems.getDefault()) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                try {
+                    long size = channel.size();
+                    checkSize(name, size);
+                    return new Rom(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                } finally {
+                    channel.close();
+                }
+            }
+            SeekableByteChannel channel = Files.newByteChannel(path);
+            try {
+                long size = channel.size();
+                checkSize(name, size);
+                ByteBuffer image = ByteBuffer.allocate((int)size);
+                while (image.hasRemaining() && channel.read(image) >= 0);
+                image.flip();
+                return new Rom(name, image);
+            } finally {
+                channel.close();
+            }
+        } catch (RomLoadException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RomLoadException("Unable to read ROM " + path, e);
+        }
+    }
+
+    /**
+     * Reads the entry <code>entry</code> of a zip or jar archive, without extracting it.
+     */
+    public static Rom load(Path archive, String entry) throws RomLoadException {
+        FileSystem zip;
+        try {
+            zip = FileSystems.newFileSystem(archive, (ClassLoader)null);
+        } catch (IOException e) {
+            throw new RomLoadException("Unable to open archive " + archive, e);
+        }
+        try {
+            return load(zip.getPath(entry));
+        } finally {
+            try {
+                zip.close();
+            } catch (IOException ex) {}
+        }
+    }
+
+    /**
+     * Reads a ROM from a file path, or from an archive entry given as <code>archive.zip!/entry</code>.
+     */
+    public static Rom load(String location) throws RomLoadException {
+        int bang = location.indexOf("!/");
+        if (bang > 0)
+            return load(Paths.get(location.substring(0, bang)), location.substring(bang + 2));
+        return load(Paths.get(location));
+    }
+
+    private static void checkSize(String name, long size) throws RomLoadException {
+        if (size == 0)
+            throw new RomLoadException(name + " is empty");
+        if (size > MAX_SIZE)
+            throw new RomLoadException(name + " is " + size + " bytes, no machine can load more than " + MAX_SIZE);
+    }
+
+    public String name(){
+        return name;
+    }
+
+    /**
+     * Size of the image in bytes.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * A copy of the image.
+     */
+    public byte[] bytes(){
+        byte[] image = new byte[size];
+        for (int p = 0; p < pages.length; p++)
+            System.arraycopy(pages[p], 0, image, p << Memory.PAGE_BITS, Math.min(Memory.PAGE_SIZE, size - (p << Memory.PAGE_BITS)));
+        return image;
+    }
+
+    byte[][] pages(){
+        return pages;
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.taganaka.chip8j.chip;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a ROM can't be read, or doesn't fit the memory of the machine loading it.
+ */
+public class RomLoadException extends IOException {
+
+    public RomLoadException(String message){
+        super(message);
+    }
+
+    public RomLoadException(String message, Throwable cause){
+        super(message, cause);
+    }
+}
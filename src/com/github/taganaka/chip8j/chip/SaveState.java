@@ -0,0 +1,133 @@
+package com.github.taganaka.chip8j.chip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary save-state format of a {@link Chip}, written in big-endian order:
+ *
+ * <pre>
+ *   int    magic 'C8SS'
+ *   short  format version
+ *   byte   instruction set ordinal
+ *   byte   memory[4096 or 65536]
+ *   byte   V[16]
+ *   short  I, pc
+ *   byte   stack pointer
+ *   short  stack[16]
+ *   byte   delay timer, sound timer
+ *   short  keys bitmask
+ *   long   RNG state
+ *   long   cycle counter
+ *   byte   high resolution flag
+ *   byte   selected bitplanes
+ *   byte   RPL flags[0, 8 or 16]
+ *   byte   audio pattern[16]
+ *   byte   pitch
+ *   long   framebuffer words[128 per bitplane]
+ * </pre>
+ *
+ * The size depends on the instruction set, see {@link #size(InstructionSet)}.
+ * Saving and restoring allocate nothing; restoring only invalidates the decoded
+ * instructions whose bytes actually changed.
+ */
+final class SaveState {
+
+    static final int MAGIC   = 0x43385353; // C8SS
+    static final int VERSION = 1;
+
+    private SaveState(){
+    }
+
+    static int size(InstructionSet set){
+        return 4 + 2 + 1
+                + set.memorySize()
+                + Chip.V_SIZE
+                + 2 + 2
+                + 1
+                + Chip.STACK_SIZE * 2
+                + 1 + 1
+                + 2
+                + 8
+                + 8
+                + 1 + 1
+                + set.flags()
+                + 16 + 1
+                + set.planes() * Chip.PLANE_WORDS * 8;
+    }
+
+    static void save(Chip c, ByteBuffer out){
+        out.putInt(MAGIC);
+        out.putShort((short)VERSION);
+        out.put((byte)c.instructionSet.ordinal());
+        Memory memory = c.memory;
+        for (int i = 0; i < memory.size(); i++)
+            out.put((byte)memory.read(i));
+        out.put(c.V);
+        out.putShort((short)c.I);
+        out.putShort((short)c.pc);
+        out.put((byte)c.stackPointer);
+        for (int i = 0; i < c.stack.length; i++)
+            out.putShort(c.stack[i]);
+        out.put((byte)c.delay_t);
+        out.put((byte)c.delay_s);
+        out.putShort((short)c.keypad.mask());
+        out.putLong(c.rnd.state());
+        out.putLong(c.getCycles());
+        out.put((byte)(c.width == Chip.MAX_WIDTH ? 1 : 0));
+        out.put((byte)c.planes);
+        out.put(c.flags);
+        out.put(c.audioPattern);
+        out.put((byte)c.pitch);
+        for (int i = 0; i < c.instructionSet.planes() * Chip.PLANE_WORDS; i++)
+            out.putLong(c.lcd[i]);
+    }
+
+    static void restore(Chip c, ByteBuffer in){
+        if (in.remaining() < 6)
+            throw new IllegalArgumentException("Truncated save state: " + in.remaining() + " bytes");
+        int magic = in.getInt();
+        if (magic != MAGIC)
+            throw new IllegalArgumentException("Not a save state: " + Integer.toHexString(magic));
+        int version = in.getShort();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported save state version: " + version);
+        if (in.remaining() < size(c.instructionSet) - 6)
+            throw new IllegalArgumentException("Truncated save state: " + (in.remaining() + 6) + " bytes");
+        int set = in.get();
+        if (set != c.instructionSet.ordinal())
+            throw new IllegalArgumentException("Save state of another instruction set: " + set);
+
+        Memory memory = c.memory;
+        for (int i = 0; i < memory.size(); i++) {
+            int value = in.get() & 0xFF;
+            if (memory.read(i) != value) {
+                memory.write(i, value);
+                c.invalidate(i, 1);
+            }
+        }
+        in.get(c.V);
+        c.I  = (char)in.getShort();
+        c.pc = (char)in.getShort();
+        c.stackPointer = in.get() & 0xFF;
+        for (int i = 0; i < c.stack.length; i++)
+            c.stack[i] = in.getShort();
+        c.delay_t = in.get() & 0xFF;
+        c.delay_s = in.get() & 0xFF;
+        c.keypad.setMask(in.getShort() & 0xFFFF);
+        c.waitingForKey = false;
+        c.haltedAt = -1;
+        c.idleUntilKey = c.idleForever = false;
+        c.rnd.setState(in.getLong());
+        c.setCycles(in.getLong());
+        boolean high = in.get() != 0;
+        c.width  = high ? Chip.MAX_WIDTH : Chip.SCREEN_WIDTH;
+        c.height = high ? Chip.MAX_HEIGHT : Chip.SCREEN_HEIGHT;
+        c.planes = in.get() & 0x3;
+        in.get(c.flags);
+        in.get(c.audioPattern);
+        c.pitch = in.get() & 0xFF;
+        for (int i = 0; i < c.instructionSet.planes() * Chip.PLANE_WORDS; i++)
+            c.lcd[i] = in.getLong();
+        c.markDirty(0, 0, c.width, c.height);
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.taganaka.chip8j.chip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Instruction trace, attached with {@link Chip#setTracer(Tracer)}.
+ * Every executed instruction becomes a fixed size, big endian record:
+ * <pre>
+ *  0  long   cycle
+ *  8  short  pc
+ * 10  short  opcode
+ * 12  short  I after execution
+ * 14  short  mask of the V registers changed by the instruction, bit n for Vn
+ * 16  byte[16] V0..VF after execution
+ * </pre>
+ * Records go either to a preallocated ring holding the most recent ones, dumped on demand,
+ * or to a memory-mapped file growing one region at a time.
+ * Both dump and file start with an 8 bytes header (magic, version).
+ * A tracer belongs to a single machine and is not thread safe: dump it while the machine isn't running.
+ */
+public final class Tracer implements Closeable {
+
+    public static final int MAGIC       = 0x43385452; // "C8TR"
+    public static final int VERSION     = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 32;
+
+    // Records mapped at a time when streaming to a file
+    static final int REGION_RECORDS = 1 << 16;
+
+    private ByteBuffer records;
+    private final FileChannel file;
+    // Next write position in the file, streaming only
+    private long fileOffset;
+    // Total number of records traced
+    private long count;
+    // V as of the previous record, to compute the delta mask
+    private final byte[] lastV = new byte[Chip.V_SIZE];
+
+    private Tracer(ByteBuffer records, FileChannel file){
+        this.records = records;
+        this.file = file;
+    }
+
+    /**
+     * Keeps the last <code>capacity</code> records in memory.
+     */
+    public static Tracer ring(int capacity){
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        return new Tracer(ByteBuffer.allocate(capacity * RECORD_SIZE), null);
+    }
+
+    /**
+     * Streams every record to <code>path</code>, replacing its content.
+     * The file is truncated to the records written when closed.
+     */
+    public static Tracer stream(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            Tracer tracer = new Tracer(null, channel);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header);
+            tracer.fileOffset = HEADER_SIZE;
+            tracer.map();
+            return tracer;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void map() throws IOException {
+        records = file.map(FileChannel.MapMode.READ_WRITE, fileOffset, (long)REGION_RECORDS * RECORD_SIZE);
+    }
+
+    /**
+     * Appends the record of the instruction at <code>pc</code> that just executed.
+     */
+    void trace(long cycle, int pc, int opcode, Chip c){
+        if (!records.hasRemaining()) {
+            if (file == null) {
+                records.clear();
+            } else {
+                fileOffset += records.capacity();
+                try {
+                    map();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to extend trace file", e);
+                }
+            }
+        }
+        byte[] V = c.V;
+        int changed = 0;
+        for (int i = 0; i < V.length; i++) {
+            if (V[i] != lastV[i]) {
+                changed |= 1 << i;
+                lastV[i] = V[i];
+            }
+        }
+        ByteBuffer out = records;
+        out.putLong(cycle);
+        out.putShort((short)pc);
+        out.putShort((short)opcode);
+        out.putShort((short)c.I);
+        out.putShort((short)changed);
+        out.put(V);
+        count++;
+    }
+
+    /**
+     * Number of records traced so far, including the ones the ring has overwritten.
+     */
+    public long count(){
+        return count;
+    }
+
+    /**
+     * Writes the header followed by the records held by the ring, oldest first.
+     */
+    public void dump(WritableByteChannel out) throws IOException {
+        if (file != null)
+            throw new IllegalStateException("Streaming tracer, records are already in the file");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(out, header);
+        ByteBuffer all = records.duplicate();
+        if (count * RECORD_SIZE > all.capacity()) {
+            // Wrapped: the oldest record sits at the write position
+            all.limit(all.capacity());
+            writeFully(out, all);
+        }
+        all.position(0).limit(records.position());
+        writeFully(out, all);
+    }
+
+    public void dump(Path path) throws IOException {
+        FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    /**
+     * Flushes a streaming tracer and trims its file; no-op for a ring.
+     */
+    @Override
+    public void close() throws IOException {
+        if (file == null || !file.isOpen())
+            return;
+        try {
+            ((MappedByteBuffer)records).force();
+            file.truncate(fileOffset + records.position());
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Formats one record read at the buffer position, e.g. for a trace viewer.
+     */
+    public static String format(ByteBuffer in){
+        in.order(ByteOrder.BIG_ENDIAN);
+        long cycle  = in.getLong();
+        int pc      = in.getShort() & 0xFFFF;
+        int opcode  = in.getShort() & 0xFFFF;
+        int index   = in.getShort() & 0xFFFF;
+        int changed = in.getShort() & 0xFFFF;
+        StringBuilder sb = new StringBuilder(String.format("%10d %03X %04X I=%03X", cycle, pc, opcode, index));
+        for (int i = 0; i < Chip.V_SIZE; i++) {
+            int v = in.get() & 0xFF;
+            if ((changed & (1 << i)) != 0)
+                sb.append(String.format(" V%X=%02X", i, v));
+        }
+        return sb.toString();
+    }
+}
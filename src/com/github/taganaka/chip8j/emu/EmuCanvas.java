@@ -0,0 +1,243 @@
+package com.github.taganaka.chip8j.emu;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.host.ChipMetrics;
+import com.github.taganaka.chip8j.host.FrameExchange;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by francescolaurita on 7/7/15.
+ *
+ * Actively renders the latest frame published by the emulator, from a thread of its own
+ * paced at the display refresh rate. Changed pixels are copied into a packed int[] raster,
+ * which has the 128x64 resolution: in 64x32 mode each pixel covers 2x2 of it. The raster is
+ * uploaded to a VolatileImage and drawn scaled to the canvas in a single drawImage, then the
+ * BufferStrategy flips. Nothing is drawn while the frame, the size and the surfaces stay the same.
+ *
+ * The picture keeps its 2:1 aspect ratio; with <code>integerScaling</code> it is only scaled
+ * by whole factors of the current resolution, so every emulated pixel gets the same size.
+ * The time from a frame being published to its flip goes to the render latency metrics.
+ */
+public class EmuCanvas extends Canvas {
+
+    private static final int WIDTH  = Chip.MAX_WIDTH;
+    private static final int HEIGHT = Chip.MAX_HEIGHT;
+    // Colors by bitplanes set: none, first, second, both
+    private static final int[] PALETTE = {
+            Color.BLACK.getRGB(), Color.GREEN.getRGB(), new Color(0x00, 0x80, 0x00).getRGB(), Color.WHITE.getRGB()
+    };
+
+    private final FrameExchange frames;
+    private final ChipMetrics metrics;
+    private final boolean integerScaling;
+    // Render thread state: the raster, the frame it holds and its upload to the graphics device
+    private final BufferedImage screen;
+    private final int[] pixels;
+    private final long[] shown = new long[Chip.PLANES * Chip.PLANE_WORDS];
+    private int shownWidth = 64;
+    private VolatileImage texture;
+    // Size of the last picture drawn, and publication time of the frame not flipped yet, 0 if none
+    private int drawnWidth, drawnHeight;
+    private long pending;
+
+    private volatile boolean exposed;
+    private volatile Thread renderer;
+
+    public EmuCanvas(FrameExchange frames, ChipMetrics metrics, boolean integerScaling){
+        this.frames = frames;
+        this.metrics = metrics;
+        this.integerScaling = integerScaling;
+        screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt)screen.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, PALETTE[0]);
+        setBackground(Color.BLACK);
+        // Keys go to the frame
+        setFocusable(false);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        createBufferStrategy(2);
+        renderer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                render();
+            }
+        }, "chip8j-render");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        renderer = null;
+        super.removeNotify();
+    }
+
+    // Window uncovered or restored: drawing is up to the render thread
+    @Override
+    public void update(Graphics g) {
+        paint(g);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        exposed = true;
+    }
+
+    private void render(){
+        long period = 1000000000L / refreshRate();
+        long deadline = System.nanoTime();
+        while (renderer == Thread.currentThread()) {
+            boolean changed = refresh();
+            int width  = getWidth();
+            int height = getHeight();
+            if ((changed || exposed || width != drawnWidth || height != drawnHeight) && width > 0 && height > 0) {
+                exposed = false;
+                drawnWidth  = width;
+                drawnHeight = height;
+                try {
+                    present(width, height);
+                } catch (IllegalStateException e) {
+                    // The peer went away under our feet, the loop ends with removeNotify()
+                }
+            }
+            deadline += period;
+            long wait = deadline - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            else
+                deadline = System.nanoTime();
+        }
+    }
+
+    /**
+     * Copies the pixels that changed since the last refresh into the raster.
+     * @return whether anything changed
+     */
+    private boolean refresh(){
+        long[] lcd = frames.take();
+        if (lcd == null)
+            return false;
+
+        int width  = frames.width();
+        int height = frames.height();
+        // Everything changes along with the resolution
+        boolean all = width != shownWidth;
+        shownWidth = width;
+        int scale = WIDTH / width;
+        int words = width >> 6;
+
+        boolean changedAny = all;
+        for (int row = 0; row < height; row++){
+            for (int word = 0; word < words; word++){
+                int at = row * Chip.ROW_WORDS + word;
+                long plane0 = lcd[at];
+                long plane1 = lcd[Chip.PLANE_WORDS + at];
+                long changed = all ? -1L : (plane0 ^ shown[at]) | (plane1 ^ shown[Chip.PLANE_WORDS + at]);
+                if (changed == 0)
+                    continue;
+
+                int first = Long.numberOfLeadingZeros(changed);
+                int last  = 63 - Long.numberOfTrailingZeros(changed);
+                for (int col = first; col <= last; col++){
+                    int color = PALETTE[(int)((plane0 >>> (63 - col)) & 1) | (int)((plane1 >>> (63 - col)) & 1) << 1];
+                    int x = (word * 64 + col) * scale;
+                    for (int dy = 0; dy < scale; dy++)
+                        Arrays.fill(pixels, (row * scale + dy) * WIDTH + x, (row * scale + dy) * WIDTH + x + scale, color);
+                }
+                shown[at] = plane0;
+                shown[Chip.PLANE_WORDS + at] = plane1;
+                changedAny = true;
+            }
+        }
+        if (changedAny && metrics != null && pending == 0)
+            pending = frames.publishedAt();
+        return changedAny;
+    }
+
+    // Draws the picture into the back buffer and flips, again if the surfaces were lost meanwhile
+    private void present(int width, int height){
+        BufferStrategy strategy = getBufferStrategy();
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (strategy == null || gc == null)
+            return;
+        do {
+            do {
+                Image image = upload(gc);
+                Graphics2D g = (Graphics2D)strategy.getDrawGraphics();
+                try {
+                    g.setColor(Color.BLACK);
+                    g.fillRect(0, 0, width, height);
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+                    Rectangle r = viewport(width, height);
+                    g.drawImage(image, r.x, r.y, r.width, r.height, null);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+
+        if (pending != 0) {
+            metrics.recordRenderLatency(System.nanoTime() - pending);
+            pending = 0;
+        }
+    }
+
+    // The raster as an accelerated image, or the raster itself if the device has no room for it
+    private Image upload(GraphicsConfiguration gc){
+        if (texture == null || texture.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE)
+            texture = gc.createCompatibleVolatileImage(WIDTH, HEIGHT);
+        if (texture == null)
+            return screen;
+        do {
+            Graphics2D g = texture.createGraphics();
+            try {
+                g.drawImage(screen, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+        } while (texture.contentsLost() && texture.validate(gc) != VolatileImage.IMAGE_INCOMPATIBLE);
+        return texture;
+    }
+
+    /**
+     * Where the picture goes in a canvas of <code>width</code> x <code>height</code>: centered,
+     * as large as the 2:1 aspect ratio (and integer scaling, if enabled) allows.
+     */
+    private Rectangle viewport(int width, int height){
+        int w, h;
+        if (integerScaling) {
+            int columns = shownWidth;
+            int rows    = shownWidth / 2;
+            int scale   = Math.max(1, Math.min(width / columns, height / rows));
+            w = columns * scale;
+            h = rows * scale;
+        } else if (width >= height * 2) {
+            h = height;
+            w = height * 2;
+        } else {
+            w = width;
+            h = width / 2;
+        }
+        return new Rectangle((width - w) / 2, (height - h) / 2, w, h);
+    }
+
+    private static int refreshRate(){
+        if (GraphicsEnvironment.isHeadless())
+            return 60;
+        int rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
+    }
+}
@@ -1,44 +1,37 @@
 package com.github.taganaka.chip8j.emu;
 
+import com.github.taganaka.chip8j.chip.Chip;
 import com.github.taganaka.chip8j.chip.KeyMap;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.Map;
 
 /**
  * Created by francescolaurita on 7/7/15.
  */
 public class EmuFrame extends JFrame implements KeyListener {
 
-    private byte[] keys;
-    private Map<Integer, Integer> map;
+    private KeyMap keyMap;
     private Main program;
 
-    public EmuFrame(EmuPanel panel, Main program){
+    public EmuFrame(EmuCanvas canvas, Main program){
         this.program = program;
-        keys = new byte[16];
-        for (int i = 0; i < keys.length; i++) {
-            keys[i] = 0x0;
-        }
-        map = new KeyMap().map();
-
-        setPreferredSize(new Dimension(640, 320));
+        keyMap = new KeyMap();
 
-        setPreferredSize(
-                new Dimension(
-                        640 + getInsets().left + getInsets().right,
-                        320 + getInsets().top + getInsets().bottom
-                )
-        );
-        setResizable(false);
+        canvas.setPreferredSize(new Dimension(640, 320));
         setLayout(new BorderLayout());
-        add(panel, BorderLayout.CENTER);
+        add(canvas, BorderLayout.CENTER);
+        getContentPane().setBackground(Color.BLACK);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setTitle("CHIP-8 Emu");
         pack();
+        Insets insets = getInsets();
+        setMinimumSize(new Dimension(
+                Chip.MAX_WIDTH + insets.left + insets.right,
+                Chip.MAX_HEIGHT + insets.top + insets.bottom
+        ));
         Dimension dim = Toolkit.getDefaultToolkit().getScreenSize();
         setLocation(
                 dim.width / 2 - this.getSize().width / 2,
@@ -59,22 +52,18 @@ public class EmuFrame extends JFrame implements KeyListener {
         if(e.getKeyCode() == KeyEvent.VK_ESCAPE){
             System.exit(0);
         }
-        Integer i = map.get(e.getKeyCode());
-        if (i != null) {
-            System.out.println(e.getKeyCode());
-            keys[i.intValue()] = 0x1;
-            program.chip8Instance().setKeys(keys);
+        int key = keyMap.key(e.getKeyCode());
+        if (key >= 0) {
+            program.chip8Instance().keypad().press(key);
         }
 
     }
 
     @Override
     public void keyReleased(KeyEvent e) {
-        Integer i = map.get(e.getKeyCode());
-        if (i != null) {
-            System.out.println(e.getKeyCode());
-            keys[i.intValue()] = 0x0;
-            program.chip8Instance().setKeys(keys);
+        int key = keyMap.key(e.getKeyCode());
+        if (key >= 0) {
+            program.chip8Instance().keypad().release(key);
         }
 
     }
@@ -1,34 +1,200 @@
 package com.github.taganaka.chip8j.emu;
 
 import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+import com.github.taganaka.chip8j.host.AudioEngine;
+import com.github.taganaka.chip8j.host.ChipMetrics;
+import com.github.taganaka.chip8j.host.FrameExchange;
+import com.github.taganaka.chip8j.host.FrameRecorder;
+import com.github.taganaka.chip8j.host.InputRecorder;
+import com.github.taganaka.chip8j.host.RealTimePacer;
+import com.github.taganaka.chip8j.host.RomCatalog;
+import com.github.taganaka.chip8j.host.Scheduler;
 
+import javax.management.JMException;
 import javax.swing.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 
 /**
  * Created by francescolaurita on 7/4/15.
+ *
+ * The session is recorded for {@link com.github.taganaka.chip8j.host.Replayer}
+ * when started with -Dchip8j.record=&lt;file&gt;, and its frames are captured for
+ * {@link com.github.taganaka.chip8j.host.FrameExport} with -Dchip8j.capture=&lt;file&gt;
+ * SUPER-CHIP and XO-CHIP programs need -Dchip8j.instructionSet=SUPER_CHIP|XO_CHIP,
+ * the quirks profile is picked with -Dchip8j.quirks=&lt;profile&gt;
+ * Live metrics are published over JMX as com.github.taganaka.chip8j:type=ChipMetrics,name=&lt;rom&gt;
+ * ROMs go through the {@link RomCatalog}, which provides their instruction set, quirks and speed
+ * and keeps their state at exit; -Dchip8j.resume=true starts from the state kept last time.
+ * Sound plays on the default audio device, -Dchip8j.audio=false mutes it.
+ * The window can be resized; -Dchip8j.integerScaling=true keeps the pixels a whole number of screen pixels.
  */
 public class Main extends Thread implements Chip.IOHandler{
     private Chip chip8;
-    private EmuPanel panel;
+    private EmuCanvas canvas;
     private EmuFrame frame;
+    private FrameExchange frames;
+    private ChipMetrics metrics;
+    // Emulator thread: frame capture, null if disabled
+    private FrameRecorder capture;
 
-    public Main(String rom){
-        chip8 = new Chip(this);
+    private int cpuHz;
+    private String rom;
+    private long seed;
+    // Set when started from the catalog, which keeps the state at exit
+    private RomCatalog catalog;
+    private RomCatalog.Entry entry;
+
+    public Main(String rom) throws IOException {
+        this(rom, Scheduler.DEFAULT_CPU_HZ);
+    }
+
+    public Main(String rom, int cpuHz) throws IOException {
+        this.cpuHz = cpuHz;
+        this.rom = rom;
+        seed = System.nanoTime();
+        InstructionSet instructionSet = InstructionSet.valueOf(System.getProperty("chip8j.instructionSet", "CHIP_8"));
+        String profile = System.getProperty("chip8j.quirks");
+        chip8 = new Chip(this, seed, instructionSet,
+                profile != null ? Quirks.valueOf(profile) : Quirks.defaultFor(instructionSet));
         chip8.loadROM(rom);
-        panel = new EmuPanel();
-        frame = new EmuFrame(panel, this);
-        panel.lcd = new byte[0];
+        createUI(new File(rom).getName());
+    }
+
+    /**
+     * Runs a catalog entry with the instruction set and quirks it was indexed with,
+     * unless overridden by the system properties, from its last save state if <code>resume</code>.
+     */
+    public Main(RomCatalog catalog, RomCatalog.Entry entry, int cpuHz, boolean resume) throws IOException {
+        this.catalog = catalog;
+        this.entry = entry;
+        this.cpuHz = cpuHz;
+        this.rom = entry.path().toString();
+        seed = System.nanoTime();
+        InstructionSet instructionSet = InstructionSet.valueOf(
+                System.getProperty("chip8j.instructionSet", entry.instructionSet().name()));
+        String profile = System.getProperty("chip8j.quirks");
+        chip8 = new Chip(this, seed, instructionSet, profile != null ? Quirks.valueOf(profile) : entry.quirks());
+        chip8.loadROM(catalog.rom(entry));
+        byte[] state = resume ? catalog.loadState(entry) : null;
+        if (state != null) {
+            // The state is checked before anything is restored, so the machine is still fresh if it's refused
+            try {
+                chip8.restoreState(state);
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Not resuming " + entry.name() + ": " + ex.getMessage());
+            }
+        }
+        createUI(entry.name());
+    }
+
+    private void createUI(String name){
+        frames = new FrameExchange(Chip.PLANES * Chip.PLANE_WORDS);
+        metrics = new ChipMetrics();
+        try {
+            metrics.register(name);
+        } catch (JMException ex) {
+            ex.printStackTrace();
+        }
+        canvas = new EmuCanvas(frames, metrics, Boolean.getBoolean("chip8j.integerScaling"));
+        frame = new EmuFrame(canvas, this);
 
     }
     public void run(){
-        while (true)
-            chip8.run();
+        Scheduler scheduler = new Scheduler(chip8, cpuHz, new RealTimePacer());
+        scheduler.setMetrics(metrics);
+        if (!"false".equals(System.getProperty("chip8j.audio")))
+            scheduler.setAudio(AudioEngine.open());
+        String recording = System.getProperty("chip8j.record");
+        if (recording != null) {
+            try {
+                FileOutputStream out = new FileOutputStream(recording);
+                final InputRecorder recorder = entry != null
+                        ? InputRecorder.attach(chip8, scheduler, entry.digest(), seed, out)
+                        : InputRecorder.attach(chip8, scheduler, rom, seed, out);
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            recorder.close();
+                        } catch (IOException ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+        }
+        String captureFile = System.getProperty("chip8j.capture");
+        if (captureFile != null) {
+            try {
+                capture = new FrameRecorder(new FileOutputStream(captureFile), cpuHz);
+                closeCaptureAtExit(scheduler);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+        }
+        if (catalog != null)
+            keepStateAtExit(scheduler);
+        scheduler.run();
+    }
+
+    private void keepStateAtExit(final Scheduler scheduler){
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                scheduler.stop();
+                try {
+                    Main.this.join(1000);
+                    catalog.storeState(entry, chip8.saveState());
+                    catalog.save();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
     }
+
+    private void closeCaptureAtExit(final Scheduler scheduler){
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                scheduler.stop();
+                try {
+                    Main.this.join(1000);
+                    capture.close();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+
     public static void main(String[] args) {
         if (args.length > 0) {
-            final Main main = new Main(args[0]);
-            main.start();
+            try {
+                RomCatalog catalog = RomCatalog.openDefault();
+                RomCatalog.Entry entry = catalog.add(Paths.get(args[0]));
+                catalog.save();
+                int cpuHz = args.length > 1 ? Integer.parseInt(args[1]) : entry.cpuHz();
+                final Main main = new Main(catalog, entry, cpuHz, Boolean.getBoolean("chip8j.resume"));
+                main.start();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.exit(1);
+            }
         } else {
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
@@ -51,14 +217,15 @@ public class Main extends Thread implements Chip.IOHandler{
     }
 
     @Override
-    public void onUpdateScreen(byte[] lcd) {
-        panel.lcd = lcd;
-        frame.repaint();
+    public void onUpdateScreen(long[] lcd, int x, int y, int width, int height) {
+        frames.publish(lcd, chip8.screenWidth(), chip8.screenHeight());
+        if (capture != null)
+            capture.capture(chip8.getCycles(), lcd, chip8.screenWidth(), chip8.screenHeight());
     }
 
     @Override
     public void onEmitSound() {
-        java.awt.Toolkit.getDefaultToolkit().beep();
+        // Played by the AudioEngine, which follows the sound timer
     }
 
 }
@@ -1,32 +1,138 @@
 package com.github.taganaka.chip8j.emu;
 
+import com.github.taganaka.chip8j.host.RomCatalog;
+
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Created by francescolaurita on 7/7/15.
+ *
+ * Lists the ROMs of the {@link RomCatalog}, which indexes ./roms the first time.
+ * Other folders are indexed with "Add folder...", rescanning one only rereads the files that changed.
  */
 public class RomChooserFrame extends JFrame{
 
+    private RomCatalog catalog;
+    private JList<RomCatalog.Entry> list;
+    private JButton play;
+    private JButton resume;
+
     public RomChooserFrame(){
-        setPreferredSize(new Dimension(0, 0));
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setCurrentDirectory(new File("./ROMS"));
-        setResizable(false);
+        try {
+            catalog = RomCatalog.openDefault();
+            Path roms = Paths.get("roms");
+            if (catalog.entries().isEmpty() && Files.isDirectory(roms)) {
+                catalog.scan(roms);
+                catalog.save();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+
+        list = new JList<>(new DefaultListModel<RomCatalog.Entry>());
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                RomCatalog.Entry entry = list.getSelectedValue();
+                play.setEnabled(entry != null);
+                resume.setEnabled(entry != null && entry.hasState());
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && list.getSelectedValue() != null)
+                    start(false);
+            }
+        });
+
+        JButton add = new JButton("Add folder...");
+        add.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                addFolder();
+            }
+        });
+        play = new JButton("Play");
+        play.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                start(false);
+            }
+        });
+        resume = new JButton("Resume");
+        resume.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                start(true);
+            }
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(add);
+        buttons.add(resume);
+        buttons.add(play);
+
+        setTitle("CHIP-8 ROMs");
         setLayout(new BorderLayout());
-        add(fileChooser, BorderLayout.CENTER);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        setPreferredSize(new Dimension(400, 480));
         setDefaultCloseOperation(EXIT_ON_CLOSE);
+        refresh();
         pack();
         Dimension dim = Toolkit.getDefaultToolkit().getScreenSize();
         setLocation(dim.width / 2 - this.getSize().width / 2, dim.height / 2 - this.getSize().height/2);
 
         toFront();
-        int retval = fileChooser.showOpenDialog(this);
-        if (retval == JFileChooser.APPROVE_OPTION){
-            File file = fileChooser.getSelectedFile();
-            final Main main = new Main(file.getAbsolutePath());
+        setVisible(true);
+    }
+
+    private void refresh(){
+        DefaultListModel<RomCatalog.Entry> model = (DefaultListModel<RomCatalog.Entry>)list.getModel();
+        model.clear();
+        for (RomCatalog.Entry entry : catalog.entries())
+            model.addElement(entry);
+        play.setEnabled(false);
+        resume.setEnabled(false);
+    }
+
+    private void addFolder(){
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setCurrentDirectory(new File("roms"));
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        try {
+            catalog.scan(fileChooser.getSelectedFile().toPath());
+            catalog.save();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Unable to index folder", JOptionPane.ERROR_MESSAGE);
+        }
+        refresh();
+    }
+
+    private void start(boolean resumeState){
+        RomCatalog.Entry entry = list.getSelectedValue();
+        try {
+            final Main main = new Main(catalog, entry, entry.cpuHz(), resumeState);
             main.start();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Unable to load ROM", JOptionPane.ERROR_MESSAGE);
+            return;
         }
         setVisible(false);
     }
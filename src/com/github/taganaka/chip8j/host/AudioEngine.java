@@ -0,0 +1,238 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays the sound of a machine, attached with {@link Scheduler#setAudio(AudioEngine)}.
+ *
+ * At every timer tick the emulator thread hands over the sound timer, XO-CHIP pattern and pitch;
+ * when they change a new immutable tone is published through a volatile field, nothing else
+ * is allocated and nothing blocks. A thread of its own renders the tone in chunks of
+ * {@link #CHUNK_FRAMES} samples into a {@link Sink}: the buzzer is copied from a square wave
+ * rendered once, an XO-CHIP pattern is played bit by bit at the rate set by the pitch.
+ * Starting and stopping flush the sink, so they are heard within a chunk or so.
+ */
+public final class AudioEngine implements Closeable {
+
+    public static final int SAMPLE_RATE  = 44100;
+    public static final int CHUNK_FRAMES = 256;
+    // Line buffer, in samples: bounds the latency of a tone change that doesn't flush
+    static final int LINE_FRAMES = 2048;
+    // Buzzer of the machines without audio patterns: 441Hz, 100 samples a period
+    static final int BUZZER_HZ = 441;
+    static final byte AMPLITUDE = 24;
+
+    static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 8, 1, true, false);
+
+    private static final Tone SILENCE = new Tone(false, null, 64);
+
+    private final Sink sink;
+    private final byte[] buzzer = new byte[SAMPLE_RATE / BUZZER_HZ];
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Tone tone = SILENCE;
+
+    // Emulator thread: the state last published and a scratch copy of the chip pattern
+    private Tone published = SILENCE;
+    private final byte[] pattern = new byte[16];
+
+    public AudioEngine(Sink sink){
+        this.sink = sink;
+        for (int i = 0; i < buzzer.length; i++)
+            buzzer[i] = i < buzzer.length / 2 ? AMPLITUDE : -AMPLITUDE;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                render();
+            }
+        }, "chip8j-audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * An engine playing on the default audio device, or a silent one if there's none.
+     */
+    public static AudioEngine open(){
+        try {
+            return new AudioEngine(new LineSink());
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            return silent();
+        }
+    }
+
+    /**
+     * An engine rendering into the void, at the pace of a real device.
+     */
+    public static AudioEngine silent(){
+        return new AudioEngine(new NullSink());
+    }
+
+    /**
+     * Publishes the sound state of the chip; called by the emulator thread at each timer tick,
+     * before the timers are decremented, so that each tick of the sound timer is heard.
+     */
+    public void update(Chip chip){
+        boolean on = chip.soundTimer() > 0;
+        if (!on) {
+            if (published.on)
+                tone = published = SILENCE;
+            return;
+        }
+        byte[] bits = null;
+        if (chip.instructionSet() == InstructionSet.XO_CHIP) {
+            chip.audioPattern(pattern);
+            // A program that never loaded a pattern gets the buzzer
+            for (byte b : pattern) {
+                if (b != 0) {
+                    bits = pattern;
+                    break;
+                }
+            }
+        }
+        int pitch = chip.pitch();
+        if (published.on && Arrays.equals(bits, published.pattern) && (bits == null || pitch == published.pitch))
+            return;
+        tone = published = new Tone(true, bits != null ? bits.clone() : null, pitch);
+    }
+
+    /**
+     * Stops the rendering thread and releases the sink.
+     */
+    @Override
+    public void close(){
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    private void render(){
+        byte[] chunk = new byte[CHUNK_FRAMES];
+        Tone playing = SILENCE;
+        int buzzerAt = 0;
+        double bitAt = 0;
+        while (running) {
+            Tone current = tone;
+            if (current != playing) {
+                if (current.on != playing.on)
+                    sink.flush();
+                playing = current;
+            }
+            if (!playing.on) {
+                Arrays.fill(chunk, (byte)0);
+            } else if (playing.pattern == null) {
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = buzzer[buzzerAt];
+                    if (++buzzerAt == buzzer.length)
+                        buzzerAt = 0;
+                }
+            } else {
+                byte[] bits = playing.pattern;
+                for (int i = 0; i < chunk.length; i++) {
+                    int bit = (int)bitAt;
+                    chunk[i] = ((bits[bit >> 3] >> (7 - (bit & 7))) & 1) != 0 ? AMPLITUDE : -AMPLITUDE;
+                    bitAt += playing.step;
+                    if (bitAt >= 128)
+                        bitAt -= 128;
+                }
+            }
+            sink.write(chunk, chunk.length);
+        }
+    }
+
+    /**
+     * Destination of the rendered samples: 8 bits signed, mono, {@link #SAMPLE_RATE}.
+     */
+    public interface Sink {
+        /**
+         * Queues the samples, blocking while there is no room for them.
+         */
+        void write(byte[] samples, int length);
+
+        /**
+         * Drops the samples queued and not played yet.
+         */
+        void flush();
+
+        void close();
+    }
+
+    // Plays on the default device
+    static final class LineSink implements Sink {
+        private final SourceDataLine line;
+
+        LineSink() throws LineUnavailableException {
+            line = AudioSystem.getSourceDataLine(FORMAT);
+            line.open(FORMAT, LINE_FRAMES);
+            line.start();
+        }
+
+        @Override
+        public void write(byte[] samples, int length) {
+            line.write(samples, 0, length);
+        }
+
+        @Override
+        public void flush() {
+            line.flush();
+        }
+
+        @Override
+        public void close() {
+            line.close();
+        }
+    }
+
+    // Drops the samples, taking as long as playing them would
+    static final class NullSink implements Sink {
+        private long deadline = System.nanoTime();
+
+        @Override
+        public void write(byte[] samples, int length) {
+            deadline += length * 1000000000L / SAMPLE_RATE;
+            long wait = deadline - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            else
+                deadline = System.nanoTime();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Tone {
+        final boolean on;
+        // XO-CHIP pattern, null for the buzzer
+        final byte[] pattern;
+        final int pitch;
+        // Pattern bits per sample
+        final double step;
+
+        Tone(boolean on, byte[] pattern, int pitch){
+            this.on      = on;
+            this.pattern = pattern;
+            this.pitch   = pitch;
+            this.step    = 4000 * Math.pow(2, (pitch - 64) / 48.0) / SAMPLE_RATE;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+import com.github.taganaka.chip8j.chip.Rom;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs every ROM of a folder headless, in parallel, and checks its framebuffer against golden hashes.
+ * Usage: BatchRunner [rom folder] [golden file], by default roms and roms.golden
+ *
+ * Each ROM runs with the instruction set its code needs and that set's default quirks and speed, a fixed
+ * RNG seed, and a key script: the keypad masks in <code>&lt;rom&gt;.keys</code> next to the ROM,
+ * or else in -Dchip8j.batch.script=&lt;file&gt;, or else a default one. A script has one mask per
+ * line, in hexadecimal, each held for -Dchip8j.batch.scriptTicks timer ticks (15), looping;
+ * '#' starts a comment. The framebuffer hash is taken every -Dchip8j.batch.checkpoint ticks (600)
+ * for -Dchip8j.batch.cycles cycles (300000).
+ *
+ * ROMs are reported as PASS, FAIL (with the first checkpoint that differs), NEW (no golden hashes)
+ * or ERROR, with the instructions per second of the run; the exit status is 1 on any FAIL or ERROR.
+ * -Dchip8j.batch.update=true writes the hashes of this run as the new golden file instead.
+ * The golden file is text: a header with the settings, then a line per ROM with its name,
+ * SHA-1 and hashes. -Dchip8j.recompiler=true runs with the recompiler, -Dchip8j.batch.threads
+ * sets the number of ROMs run at once (all the cores).
+ */
+public class BatchRunner {
+
+    static final String HEADER = "# chip8j golden framebuffer hashes";
+
+    // Movement and fire keys of the bundled games
+    static final int[] DEFAULT_SCRIPT = { 0x0010, 0x0000, 0x0040, 0x0020, 0x1000, 0x0002, 0x0000, 0x2000 };
+    static final long SEED = 1;
+
+    private final long cycles;
+    private final int checkpointTicks;
+    private final int scriptTicks;
+    private final int[] defaultScript;
+    private final boolean recompiler;
+
+    public BatchRunner(long cycles, int checkpointTicks, int scriptTicks, int[] defaultScript, boolean recompiler){
+        if (cycles <= 0 || checkpointTicks <= 0 || scriptTicks <= 0)
+            throw new IllegalArgumentException("Cycles and ticks must be positive");
+        if (defaultScript.length == 0)
+            throw new IllegalArgumentException("Empty key script");
+        this.cycles = cycles;
+        this.checkpointTicks = checkpointTicks;
+        this.scriptTicks = scriptTicks;
+        this.defaultScript = defaultScript.clone();
+        this.recompiler = recompiler;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path folder = Paths.get(args.length > 0 ? args[0] : "roms");
+        Path golden = Paths.get(args.length > 1 ? args[1] : "roms.golden");
+        String script = System.getProperty("chip8j.batch.script");
+        BatchRunner runner = new BatchRunner(
+                Long.getLong("chip8j.batch.cycles", 300000),
+                Integer.getInteger("chip8j.batch.checkpoint", 600),
+                Integer.getInteger("chip8j.batch.scriptTicks", 15),
+                script != null ? readScript(Paths.get(script)) : DEFAULT_SCRIPT,
+                Boolean.getBoolean("chip8j.recompiler"));
+        int threads = Integer.getInteger("chip8j.batch.threads", Runtime.getRuntime().availableProcessors());
+
+        List<Result> results = runner.runAll(folder, threads);
+        if (Boolean.getBoolean("chip8j.batch.update")) {
+            runner.writeGolden(golden, results);
+            System.out.println(results.size() + " ROMs written to " + golden);
+            return;
+        }
+        Map<String, String[]> expected = Files.exists(golden) ? runner.readGolden(golden)
+                : Collections.<String, String[]>emptyMap();
+        boolean ok = true;
+        for (Result result : results) {
+            System.out.println(result.report(expected.get(result.name)));
+            ok &= result.passes(expected.get(result.name));
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Runs the ROMs of <code>folder</code>, <code>threads</code> at a time.
+     * @return the results, by ROM name
+     */
+    public List<Result> runAll(Path folder, int threads) throws IOException, InterruptedException {
+        List<Path> roms = new ArrayList<Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && !file.getFileName().toString().endsWith(".keys"))
+                    roms.add(file);
+            }
+        }
+        Collections.sort(roms);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final Path rom : roms) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return run(rom);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs one ROM; failures to load or run it end up in the result.
+     */
+    public Result run(Path file){
+        final Result result = new Result(file.getFileName().toString());
+        long start = System.nanoTime();
+        Chip chip = null;
+        try {
+            Rom rom = Rom.load(file);
+            result.sha1 = RomCatalog.hex(RomCatalog.sha1(rom.bytes()));
+            Path keys = file.resolveSibling(result.name + ".keys");
+            final int[] script = Files.exists(keys) ? readScript(keys) : defaultScript;
+
+            InstructionSet set = RomCatalog.requiredSet(rom.bytes());
+            chip = new Chip(new HeadlessIOHandler(), SEED, set, Quirks.defaultFor(set));
+            chip.setRecompilerEnabled(recompiler);
+            chip.loadROM(rom);
+            Scheduler scheduler = new Scheduler(chip, RomCatalog.defaultCpuHz(set), new UnthrottledPacer());
+            scheduler.setTickListener(new Scheduler.TickListener() {
+                private long ticks;
+
+                @Override
+                public void onTick(Chip chip) {
+                    ticks++;
+                    if (ticks % checkpointTicks == 0)
+                        result.hashes.add(Long.toHexString(chip.frameHash()));
+                    chip.keypad().setMask(script[(int)(ticks / scriptTicks % script.length)]);
+                }
+            });
+            chip.keypad().setMask(script[0]);
+            scheduler.runUntil(cycles);
+        } catch (IOException | RuntimeException e) {
+            result.error = e;
+        }
+        result.nanos  = System.nanoTime() - start;
+        result.cycles = chip != null ? chip.getCycles() : 0;
+        return result;
+    }
+
+    /**
+     * Key script: one hexadecimal keypad mask per line, '#' starting a comment.
+     */
+    static int[] readScript(Path file) throws IOException {
+        List<Integer> masks = new ArrayList<Integer>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int comment = line.indexOf('#');
+            String mask = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (mask.isEmpty())
+                continue;
+            try {
+                masks.add(Integer.parseInt(mask, 16) & 0xFFFF);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad key mask in " + file + ": " + mask);
+            }
+        }
+        if (masks.isEmpty())
+            throw new IOException("Empty key script: " + file);
+        int[] script = new int[masks.size()];
+        for (int i = 0; i < script.length; i++)
+            script[i] = masks.get(i);
+        return script;
+    }
+
+    private String settings(){
+        return "cycles=" + cycles + " checkpoint=" + checkpointTicks + " scriptTicks=" + scriptTicks
+                + " script=" + Arrays.toString(defaultScript).replace(" ", "");
+    }
+
+    /**
+     * Reads the golden hashes by ROM name, the SHA-1 first.
+     * @throws IOException if they were taken with other settings
+     */
+    Map<String, String[]> readGolden(Path file) throws IOException {
+        Map<String, String[]> golden = new TreeMap<String, String[]>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = in.readLine();
+            String settings = in.readLine();
+            if (!HEADER.equals(header) || settings == null || !settings.startsWith("# "))
+                throw new IOException("Not a golden file: " + file);
+            if (!settings.substring(2).equals(settings()))
+                throw new IOException("Golden hashes taken with other settings: " + settings.substring(2));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length >= 2 && !fields[0].startsWith("#"))
+                    golden.put(fields[0], Arrays.copyOfRange(fields, 1, fields.length));
+            }
+        }
+        return golden;
+    }
+
+    /**
+     * Replaces <code>file</code> with the hashes of <code>results</code>; ROMs that failed to run are left out.
+     */
+    void writeGolden(Path file, List<Result> results) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            out.write("# " + settings());
+            out.newLine();
+            for (Result result : results) {
+                if (result.error != null)
+                    continue;
+                out.write(result.name + " " + result.sha1);
+                for (String hash : result.hashes)
+                    out.write(" " + hash);
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Outcome of one ROM: its checkpoint hashes, or the error that stopped it.
+     */
+    public static final class Result {
+        final String name;
+        String sha1;
+        final List<String> hashes = new ArrayList<String>();
+        long cycles;
+        long nanos;
+        Exception error;
+
+        Result(String name){
+            this.name = name;
+        }
+
+        public String name(){
+            return name;
+        }
+
+        public Exception error(){
+            return error;
+        }
+
+        public double instructionsPerSecond(){
+            return nanos > 0 ? cycles * 1e9 / nanos : 0;
+        }
+
+        boolean passes(String[] golden){
+            return error == null && (golden == null || mismatch(golden) < 0);
+        }
+
+        // Index of the first checkpoint differing from the golden ones, -1 if none
+        int mismatch(String[] golden){
+            if (!golden[0].equals(sha1))
+                return 0;
+            int count = Math.max(golden.length - 1, hashes.size());
+            for (int i = 0; i < count; i++) {
+                if (i + 1 >= golden.length || i >= hashes.size() || !golden[i + 1].equals(hashes.get(i)))
+                    return i;
+            }
+            return -1;
+        }
+
+        String report(String[] golden){
+            String status;
+            if (error != null)
+                status = "ERROR " + error;
+            else if (golden == null)
+                status = "NEW";
+            else if (!golden[0].equals(sha1))
+                status = "FAIL ROM changed";
+            else if (mismatch(golden) >= 0)
+                status = "FAIL at checkpoint " + (mismatch(golden) + 1);
+            else
+                status = "PASS";
+            return String.format("%-12s %-40s %,15.0f instructions/s", name, status, instructionsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Counters;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Live metrics of one or more machines, meant for monitoring.
+ *
+ * Machines count their work in plain {@link Counters}, which a {@link Scheduler} flushes here
+ * once per frame from the emulator thread: the interpreter loop never touches a shared
+ * variable, and the striped adders keep flushes from many threads contention free.
+ * Read with {@link #snapshot()} or over JMX once {@link #register(String) registered}.
+ */
+public class ChipMetrics implements ChipMetricsMXBean {
+
+    public static final String DOMAIN = "com.github.taganaka.chip8j";
+
+    private final LongAdder[] instructions = new LongAdder[Counters.FAMILIES];
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder drawCalls = new LongAdder();
+    private final LongAdder pixelsToggled = new LongAdder();
+    private final Histogram frameTime = new Histogram();
+    private final Histogram renderLatency = new Histogram();
+    private final LongAccumulator maxDrift = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, Long.MIN_VALUE);
+    private volatile long drift;
+
+    // Guarded by this, for the rate between snapshots
+    private long lastInstructions;
+    private long lastNanos = System.nanoTime();
+
+    private ObjectName name;
+
+    public ChipMetrics(){
+        for (int i = 0; i < instructions.length; i++)
+            instructions[i] = new LongAdder();
+    }
+
+    /**
+     * Adds the counters to the totals and resets them.
+     * Must be called by the thread running the machine owning the counters.
+     */
+    public void flush(Counters counters){
+        for (int i = 0; i < Counters.FAMILIES; i++) {
+            long n = counters.instructions(i);
+            if (n != 0)
+                instructions[i].add(n);
+        }
+        frames.increment();
+        drawCalls.add(counters.drawCalls());
+        pixelsToggled.add(counters.pixelsToggled());
+        counters.reset();
+    }
+
+    /**
+     * @param frameNanos wall clock time spent executing the frame
+     * @param driftNanos wall clock time elapsed minus emulated time elapsed
+     */
+    public void recordFrame(long frameNanos, long driftNanos){
+        frameTime.record(frameNanos);
+        drift = driftNanos;
+        maxDrift.accumulate(driftNanos);
+    }
+
+    /**
+     * @param nanos time from a frame leaving the emulator to its paint completing
+     */
+    public void recordRenderLatency(long nanos){
+        renderLatency.record(nanos);
+    }
+
+    public Histogram frameTime(){
+        return frameTime;
+    }
+
+    public Histogram renderLatency(){
+        return renderLatency;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * <code>com.github.taganaka.chip8j:type=ChipMetrics,name=&lt;name&gt;</code>.
+     */
+    public synchronized void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=ChipMetrics,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        this.name = objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    /**
+     * Current values; the cycle rate covers the time since the previous snapshot.
+     */
+    public Snapshot snapshot(){
+        long[] byFamily = getInstructionsByFamily();
+        long total = 0;
+        for (long n : byFamily)
+            total += n;
+        double rate;
+        synchronized (this) {
+            long now = System.nanoTime();
+            rate = now == lastNanos ? 0 : (total - lastInstructions) * 1e9 / (now - lastNanos);
+            lastInstructions = total;
+            lastNanos = now;
+        }
+        return new Snapshot(byFamily, total, rate, frames.sum(), drawCalls.sum(), pixelsToggled.sum(),
+                drift, getMaxTimerDriftNanos(), frameTime.meanNanos(), frameTime.percentileNanos(99),
+                renderLatency.meanNanos(), renderLatency.percentileNanos(99), renderLatency.maxNanos());
+    }
+
+    @Override
+    public long getInstructions() {
+        long total = 0;
+        for (LongAdder n : instructions)
+            total += n.sum();
+        return total;
+    }
+
+    @Override
+    public long[] getInstructionsByFamily() {
+        long[] byFamily = new long[Counters.FAMILIES];
+        for (int i = 0; i < byFamily.length; i++)
+            byFamily[i] = instructions[i].sum();
+        return byFamily;
+    }
+
+    @Override
+    public double getCyclesPerSecond() {
+        return snapshot().cyclesPerSecond();
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    @Override
+    public long getDrawCalls() {
+        return drawCalls.sum();
+    }
+
+    @Override
+    public long getPixelsToggled() {
+        return pixelsToggled.sum();
+    }
+
+    @Override
+    public double getDrawCallsPerFrame() {
+        long n = frames.sum();
+        return n == 0 ? 0 : (double)drawCalls.sum() / n;
+    }
+
+    @Override
+    public double getPixelsToggledPerFrame() {
+        long n = frames.sum();
+        return n == 0 ? 0 : (double)pixelsToggled.sum() / n;
+    }
+
+    @Override
+    public long getTimerDriftNanos() {
+        return drift;
+    }
+
+    @Override
+    public long getMaxTimerDriftNanos() {
+        long max = maxDrift.get();
+        return max == Long.MIN_VALUE ? 0 : max;
+    }
+
+    @Override
+    public long getFrameTimeMeanNanos() {
+        return frameTime.meanNanos();
+    }
+
+    @Override
+    public long getFrameTimeP99Nanos() {
+        return frameTime.percentileNanos(99);
+    }
+
+    @Override
+    public long getRenderLatencyMeanNanos() {
+        return renderLatency.meanNanos();
+    }
+
+    @Override
+    public long getRenderLatencyP99Nanos() {
+        return renderLatency.percentileNanos(99);
+    }
+
+    @Override
+    public long getRenderLatencyMaxNanos() {
+        return renderLatency.maxNanos();
+    }
+
+    /**
+     * Point-in-time view of {@link ChipMetrics}. Durations are in nanoseconds.
+     */
+    public static class Snapshot {
+
+        private final long[] instructionsByFamily;
+        private final long instructions;
+        private final double cyclesPerSecond;
+        private final long frames;
+        private final long drawCalls;
+        private final long pixelsToggled;
+        private final long timerDrift;
+        private final long maxTimerDrift;
+        private final long frameTimeMean;
+        private final long frameTimeP99;
+        private final long renderLatencyMean;
+        private final long renderLatencyP99;
+        private final long renderLatencyMax;
+
+        Snapshot(long[] instructionsByFamily, long instructions, double cyclesPerSecond, long frames,
+                 long drawCalls, long pixelsToggled, long timerDrift, long maxTimerDrift,
+                 long frameTimeMean, long frameTimeP99,
+                 long renderLatencyMean, long renderLatencyP99, long renderLatencyMax){
+            this.instructionsByFamily = instructionsByFamily;
+            this.instructions         = instructions;
+            this.cyclesPerSecond      = cyclesPerSecond;
+            this.frames               = frames;
+            this.drawCalls            = drawCalls;
+            this.pixelsToggled        = pixelsToggled;
+            this.timerDrift           = timerDrift;
+            this.maxTimerDrift        = maxTimerDrift;
+            this.frameTimeMean        = frameTimeMean;
+            this.frameTimeP99         = frameTimeP99;
+            this.renderLatencyMean    = renderLatencyMean;
+            this.renderLatencyP99     = renderLatencyP99;
+            this.renderLatencyMax     = renderLatencyMax;
+        }
+
+        /**
+         * Instructions executed in the family of opcodes <code>family</code>NNN.
+         */
+        public long instructions(int family){
+            return instructionsByFamily[family];
+        }
+
+        public long instructions(){
+            return instructions;
+        }
+
+        public double cyclesPerSecond(){
+            return cyclesPerSecond;
+        }
+
+        public long frames(){
+            return frames;
+        }
+
+        public long drawCalls(){
+            return drawCalls;
+        }
+
+        public long pixelsToggled(){
+            return pixelsToggled;
+        }
+
+        public long timerDriftNanos(){
+            return timerDrift;
+        }
+
+        public long maxTimerDriftNanos(){
+            return maxTimerDrift;
+        }
+
+        public long frameTimeMeanNanos(){
+            return frameTimeMean;
+        }
+
+        public long frameTimeP99Nanos(){
+            return frameTimeP99;
+        }
+
+        public long renderLatencyMeanNanos(){
+            return renderLatencyMean;
+        }
+
+        public long renderLatencyP99Nanos(){
+            return renderLatencyP99;
+        }
+
+        public long renderLatencyMaxNanos(){
+            return renderLatencyMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d instructions (%.0f/s), %d frames, %.1f draws/frame, %.1f pixels/frame, "
+                            + "drift %.3f ms (max %.3f), frame time %.3f ms (p99 %.3f), render latency %.3f ms (p99 %.3f)",
+                    instructions, cyclesPerSecond, frames,
+                    frames == 0 ? 0.0 : (double)drawCalls / frames, frames == 0 ? 0.0 : (double)pixelsToggled / frames,
+                    timerDrift / 1e6, maxTimerDrift / 1e6, frameTimeMean / 1e6, frameTimeP99 / 1e6,
+                    renderLatencyMean / 1e6, renderLatencyP99 / 1e6);
+        }
+    }
+}
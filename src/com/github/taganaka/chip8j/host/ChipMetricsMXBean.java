@@ -0,0 +1,46 @@
+package com.github.taganaka.chip8j.host;
+
+/**
+ * JMX view of {@link ChipMetrics}. Durations are in nanoseconds.
+ */
+public interface ChipMetricsMXBean {
+
+    long getInstructions();
+
+    /**
+     * Instructions executed per opcode family, indexed by the most significant nibble.
+     */
+    long[] getInstructionsByFamily();
+
+    /**
+     * Instructions per second since the previous snapshot (or JMX read of this attribute).
+     */
+    double getCyclesPerSecond();
+
+    long getFrames();
+
+    long getDrawCalls();
+
+    long getPixelsToggled();
+
+    double getDrawCallsPerFrame();
+
+    double getPixelsToggledPerFrame();
+
+    /**
+     * Wall clock time elapsed minus emulated time elapsed, at the last frame: positive when late.
+     */
+    long getTimerDriftNanos();
+
+    long getMaxTimerDriftNanos();
+
+    long getFrameTimeMeanNanos();
+
+    long getFrameTimeP99Nanos();
+
+    long getRenderLatencyMeanNanos();
+
+    long getRenderLatencyP99Nanos();
+
+    long getRenderLatencyMaxNanos();
+}
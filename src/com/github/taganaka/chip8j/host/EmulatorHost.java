@@ -0,0 +1,154 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+import com.github.taganaka.chip8j.chip.Rom;
+import com.github.taganaka.chip8j.chip.RomLoadException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs many isolated {@link Chip} instances in one process.
+ *
+ * Sessions are time-sliced over a fixed pool of worker threads: a worker takes a running
+ * session from the shared queue, executes one slice of its cycle budget, and puts it back
+ * at the end of the queue. Sessions never share state, so any number of them can run in
+ * parallel, at most one slice per session at a time.
+ */
+public class EmulatorHost implements AutoCloseable {
+
+    public static final int DEFAULT_SLICE_CYCLES = 10000;
+
+    private final BlockingQueue<Session> runQueue = new LinkedBlockingQueue<Session>();
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<Integer, Session>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final LongAdder cycles = new LongAdder();
+    private final ChipMetrics chipMetrics = new ChipMetrics();
+    private final Thread[] workers;
+    private final long startNanos;
+
+    private volatile boolean closed;
+
+    public EmulatorHost(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EmulatorHost(int workerCount){
+        if (workerCount <= 0)
+            throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "chip8-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates a paused session running <code>rom</code> with no cycle limit.
+     */
+    public Session create(String rom, Chip.IOHandler io) throws IOException {
+        return create(rom, io, Scheduler.DEFAULT_CPU_HZ, DEFAULT_SLICE_CYCLES, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a paused session.
+     * @param cpuHz       emulated CPU frequency, which sets the timers pace in cycles
+     * @param sliceCycles cycles executed each time a worker picks the session
+     * @param cycleLimit  cycle count at which the session is finished
+     */
+    public Session create(String rom, Chip.IOHandler io, int cpuHz, int sliceCycles, long cycleLimit)
+            throws IOException {
+        return create(rom, io, InstructionSet.CHIP_8, Quirks.LEGACY, cpuHz, sliceCycles, cycleLimit);
+    }
+
+    /**
+     * Creates a paused session emulating the given instruction set with the given quirks.
+     */
+    public Session create(String rom, Chip.IOHandler io, InstructionSet instructionSet, Quirks quirks, int cpuHz,
+                          int sliceCycles, long cycleLimit) throws IOException {
+        return create(Rom.load(rom), io, instructionSet, quirks, cpuHz, sliceCycles, cycleLimit);
+    }
+
+    /**
+     * Creates a paused session running an image already loaded, shared with the other sessions running it.
+     * @throws RomLoadException if the image doesn't fit the memory of the instruction set
+     */
+    public Session create(Rom rom, Chip.IOHandler io, InstructionSet instructionSet, Quirks quirks, int cpuHz,
+                          int sliceCycles, long cycleLimit) throws RomLoadException {
+        if (closed)
+            throw new IllegalStateException("Host is closed");
+        if (sliceCycles <= 0)
+            throw new IllegalArgumentException("Slice must be positive: " + sliceCycles);
+
+        Chip chip = new Chip(io, System.nanoTime(), instructionSet, quirks);
+        chip.loadROM(rom);
+        Session session = new Session(this, ids.incrementAndGet(), chip, cpuHz, sliceCycles, cycleLimit);
+        sessions.put(session.id(), session);
+        return session;
+    }
+
+    public Session session(int id){
+        return sessions.get(id);
+    }
+
+    public HostMetrics metrics(){
+        return new HostMetrics(sessions.size(), workers.length, cycles.sum(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Instruction, drawing and frame metrics aggregated over all the sessions.
+     */
+    public ChipMetrics chipMetrics(){
+        return chipMetrics;
+    }
+
+    /**
+     * Disposes every session and stops the workers.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Session session : sessions.values())
+            session.dispose();
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+    void enqueue(Session session){
+        runQueue.add(session);
+    }
+
+    void release(Session session){
+        sessions.remove(session.id());
+    }
+
+    void account(long executed){
+        cycles.add(executed);
+    }
+
+    private void work(){
+        try {
+            while (!closed) {
+                Session session = runQueue.take();
+                if (session.runSlice())
+                    runQueue.add(session);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.taganaka.chip8j.host;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer handing completed frames from the emulator thread to a renderer.
+ *
+ * The producer copies each frame into its private back buffer and swaps it with the shared
+ * one in a single atomic operation; the consumer swaps the shared buffer with its private
+ * front buffer only when a new frame is there. Neither side ever blocks, the consumer always
+ * gets the most recent complete frame, and intermediate frames are dropped.
+ */
+public class FrameExchange {
+
+    private static final int INDEX = 0x3;
+    // Set on the shared index when the buffer holds a frame the consumer has not taken yet
+    private static final int FRESH = 0x4;
+
+    private final long[][] buffers;
+    // System.nanoTime() at which each buffer was published
+    private final long[] published = new long[3];
+    // Resolution of the frame in each buffer
+    private final int[] widths  = new int[3];
+    private final int[] heights = new int[3];
+    private final AtomicInteger shared = new AtomicInteger(1);
+
+    // Owned by the producer
+    private int back  = 0;
+    // Owned by the consumer
+    private int front = 2;
+
+    /**
+     * @param words size of the frames, e.g. Chip.PLANES * Chip.PLANE_WORDS
+     */
+    public FrameExchange(int words){
+        buffers = new long[3][words];
+    }
+
+    /**
+     * Publishes a copy of <code>lcd</code>, a frame of <code>width</code> x <code>height</code> pixels.
+     * Called by the producer only.
+     */
+    public void publish(long[] lcd, int width, int height){
+        System.arraycopy(lcd, 0, buffers[back], 0, buffers[back].length);
+        published[back] = System.nanoTime();
+        widths[back]  = width;
+        heights[back] = height;
+        back = shared.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Returns the most recent frame, or null if nothing was published since the last call.
+     * The returned array stays untouched until the next call. Called by the consumer only.
+     */
+    public long[] take(){
+        if ((shared.get() & FRESH) == 0)
+            return null;
+        front = shared.getAndSet(front) & INDEX;
+        return buffers[front];
+    }
+
+    /**
+     * System.nanoTime() at which the frame last returned by {@link #take()} was published.
+     */
+    public long publishedAt(){
+        return published[front];
+    }
+
+    /**
+     * Width of the frame last returned by {@link #take()}.
+     */
+    public int width(){
+        return widths[front];
+    }
+
+    public int height(){
+        return heights[front];
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Converts a capture written by {@link FrameRecorder} into an animated GIF or a sequence of PNGs.
+ * Usage: FrameExport &lt;capture&gt; &lt;file.gif | directory&gt; [scale]
+ * Images are 128x64 times <code>scale</code> whatever the resolution, a 64x32 pixel covering 2x2 of them.
+ *
+ * GIF delays are counted in hundredths of a second and most viewers don't honour less than two,
+ * so frames are placed on a 50Hz grid and a frame superseded within the same slot is left out.
+ * PNGs are named after the timer tick of their frame, counted from the first one, and only
+ * written for frames that differ from the previous one.
+ */
+public final class FrameExport {
+
+    public static final int DEFAULT_SCALE = 4;
+    // How long the last frame of a GIF stays, in timer ticks
+    static final int LAST_FRAME_TICKS = Scheduler.TIMER_HZ;
+
+    // Colors by bitplanes set, as on screen: none, first, second, both
+    private static final byte[] RED   = {0x00, 0x00, 0x00, (byte)0xFF};
+    private static final byte[] GREEN = {0x00, (byte)0xFF, (byte)0x80, (byte)0xFF};
+    private static final byte[] BLUE  = {0x00, 0x00, 0x00, (byte)0xFF};
+    private static final IndexColorModel PALETTE = new IndexColorModel(2, 4, RED, GREEN, BLUE);
+
+    private FrameExport(){
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: FrameExport <capture> <file.gif | directory> [scale]");
+            System.exit(1);
+        }
+        Path capture = Paths.get(args[0]);
+        Path target  = Paths.get(args[1]);
+        int scale = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SCALE;
+        int frames = target.toString().toLowerCase().endsWith(".gif")
+                ? toGif(capture, target, scale)
+                : toPngs(capture, target, scale);
+        System.err.println(frames + " frames written to " + target);
+    }
+
+    /**
+     * Writes the capture as a GIF looping forever.
+     * @return the number of frames written
+     */
+    public static int toGif(Path capture, Path gif, int scale) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (Reader reader = new Reader(Files.newInputStream(capture));
+             ImageOutputStream out = ImageIO.createImageOutputStream(Files.newOutputStream(gif))) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            BufferedImage image = image(scale);
+            int count = 0;
+            boolean pending = false;
+            long shownAt = 0;
+            long first = -1;
+            while (reader.next()) {
+                if (first < 0)
+                    first = reader.tick();
+                long at = slot(reader.tick() - first);
+                if (pending && at > shownAt)
+                    write(writer, image, (int)(at - shownAt), count++ == 0);
+                render(reader, image, scale);
+                pending = true;
+                shownAt = at;
+            }
+            if (pending)
+                write(writer, image, (int)slot(LAST_FRAME_TICKS), count++ == 0);
+            writer.endWriteSequence();
+            return count;
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Writes one PNG per distinct frame into <code>directory</code>, named after its tick.
+     * @return the number of frames written
+     */
+    public static int toPngs(Path capture, Path directory, int scale) throws IOException {
+        Files.createDirectories(directory);
+        try (Reader reader = new Reader(Files.newInputStream(capture))) {
+            BufferedImage image = image(scale);
+            int count = 0;
+            long first = -1;
+            while (reader.next()) {
+                if (first < 0)
+                    first = reader.tick();
+                render(reader, image, scale);
+                ImageIO.write(image, "png", directory.resolve(String.format("%08d.png", reader.tick() - first)).toFile());
+                count++;
+            }
+            return count;
+        }
+    }
+
+    // Start of the 50Hz GIF slot (in hundredths of a second) showing tick <code>tick</code>
+    private static long slot(long tick){
+        return Math.round(tick * 50.0 / Scheduler.TIMER_HZ) * 2;
+    }
+
+    private static BufferedImage image(int scale){
+        return new BufferedImage(Chip.MAX_WIDTH * scale, Chip.MAX_HEIGHT * scale,
+                BufferedImage.TYPE_BYTE_BINARY, PALETTE);
+    }
+
+    private static void render(Reader reader, BufferedImage image, int scale){
+        long[] lcd = reader.frame();
+        WritableRaster raster = image.getRaster();
+        // Screen pixels per emulated pixel
+        int size = scale * Chip.MAX_WIDTH / reader.width();
+        int[] cell = new int[size * size];
+        for (int y = 0; y < reader.height(); y++) {
+            for (int x = 0; x < reader.width(); x++) {
+                int at  = y * Chip.ROW_WORDS + (x >> 6);
+                int bit = 63 - (x & 63);
+                Arrays.fill(cell, (int)((lcd[at] >>> bit) & 1) | (int)((lcd[Chip.PLANE_WORDS + at] >>> bit) & 1) << 1);
+                raster.setPixels(x * size, y * size, size, size, cell);
+            }
+        }
+    }
+
+    private static void write(ImageWriter writer, BufferedImage image, int delay, boolean first) throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode)metadata.getAsTree(format);
+
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("transparentColorIndex", "0");
+        control.setAttribute("delayTime", Integer.toString(delay));
+        if (first) {
+            // Loop forever
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[]{1, 0, 0});
+            child(root, "ApplicationExtensions").appendChild(loop);
+        }
+        metadata.setFromTree(format, root);
+        writer.writeToSequence(new IIOImage(image, null, metadata), param);
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name){
+        for (int i = 0; i < parent.getLength(); i++) {
+            if (parent.item(i).getNodeName().equals(name))
+                return (IIOMetadataNode)parent.item(i);
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        parent.appendChild(node);
+        return node;
+    }
+
+    /**
+     * Decodes a capture one frame at a time.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long[] frame = new long[FrameRecorder.WORDS];
+        private long tick;
+        private int width;
+        private boolean ended;
+
+        public Reader(InputStream stream) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(stream));
+            int magic = in.readInt();
+            if (magic != FrameRecorder.MAGIC)
+                throw new IOException("Not a frame capture: " + Integer.toHexString(magic));
+            int version = in.readShort();
+            if (version != FrameRecorder.VERSION)
+                throw new IOException("Unsupported frame capture version: " + version);
+        }
+
+        /**
+         * Moves to the next frame.
+         * @return false at the end of the capture
+         */
+        public boolean next() throws IOException {
+            if (ended)
+                return false;
+            int tag = in.readUnsignedByte();
+            if (tag == FrameRecorder.END) {
+                ended = true;
+                return false;
+            }
+            if (tag != FrameRecorder.FRAME)
+                throw new IOException("Unknown record: " + tag);
+            tick += readVarint();
+            width = in.readUnsignedByte() * 64;
+            if (width != Chip.MAX_WIDTH / 2 && width != Chip.MAX_WIDTH)
+                throw new IOException("Unsupported frame width: " + width);
+            int at = 0;
+            while (at < frame.length) {
+                at += (int)readVarint();
+                int changed = (int)readVarint();
+                if (at + changed > frame.length)
+                    throw new IOException("Malformed frame at tick " + tick);
+                for (int i = 0; i < changed; i++)
+                    frame[at++] ^= in.readLong();
+            }
+            return true;
+        }
+
+        /**
+         * Timer tick of the frame.
+         */
+        public long tick(){
+            return tick;
+        }
+
+        public int width(){
+            return width;
+        }
+
+        public int height(){
+            return width / 2;
+        }
+
+        /**
+         * The framebuffer, laid out as described by {@link Chip#PLANE_WORDS}; updated in place by {@link #next()}.
+         */
+        public long[] frame(){
+            return frame;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new EOFException("Malformed varint");
+        }
+    }
+}
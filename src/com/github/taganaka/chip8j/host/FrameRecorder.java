@@ -0,0 +1,244 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Captures the frames of a session to a stream, for {@link FrameExport} to turn into a GIF or PNGs.
+ *
+ * The emulator thread hands every screen update to {@link #capture}; the updates of one 60Hz
+ * timer tick are coalesced into a single frame, the one on screen at the end of the tick.
+ * Frames go through a fixed ring of reusable buffers to a writer thread, which drops the
+ * frames identical to the previous one and encodes the others as their XOR with it, in runs
+ * of unchanged and changed words. Capturing never blocks and allocates nothing: when the
+ * writer falls behind and the ring is full, frames are dropped and counted.
+ *
+ * <pre>
+ *   int    magic 'C8FR'
+ *   short  format version
+ *   records: byte tag, then
+ *     FRAME  varint timer ticks since the previous frame (the first: since tick 0), byte width / 64,
+ *            then the framebuffer words XOR the previous frame's (zero before the first), as runs of:
+ *            varint unchanged words, varint changed words, long words[changed]
+ *     END
+ * </pre>
+ */
+public final class FrameRecorder implements Closeable {
+
+    static final int MAGIC   = 0x43384652; // C8FR
+    static final int VERSION = 1;
+
+    static final int END   = 0;
+    static final int FRAME = 1;
+
+    static final int WORDS = Chip.PLANES * Chip.PLANE_WORDS;
+
+    public static final int DEFAULT_BUFFERS = 64;
+
+    private final DataOutputStream out;
+    private final int cpuHz;
+
+    // Ring of frames, filled by the emulator thread and drained by the writer
+    private final long[][] buffers;
+    private final long[] ticks;
+    private final int[] widths;
+    // Next frame to write, owned by the writer
+    private final AtomicLong head = new AtomicLong();
+    // Next frame to fill, owned by the emulator thread
+    private final AtomicLong tail = new AtomicLong();
+    // Emulator thread: whether buffers[tail] holds the frame of the current tick, not committed yet
+    private boolean open;
+    private long openTick;
+    // Emulator thread: last tick whose frame was dropped
+    private long droppedTick = -1;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean closing;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public FrameRecorder(OutputStream stream, int cpuHz) throws IOException {
+        this(stream, cpuHz, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * Writes the header and starts the writer thread.
+     * @param cpuHz emulated instructions per second, to tell the timer tick of a cycle
+     * @param buffers frames the writer can lag behind before frames are dropped
+     */
+    public FrameRecorder(OutputStream stream, int cpuHz, int buffers) throws IOException {
+        if (cpuHz <= 0)
+            throw new IllegalArgumentException("CPU frequency must be positive: " + cpuHz);
+        if (buffers <= 0)
+            throw new IllegalArgumentException("Buffer count must be positive: " + buffers);
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.cpuHz = cpuHz;
+        this.buffers = new long[buffers][WORDS];
+        this.ticks   = new long[buffers];
+        this.widths  = new int[buffers];
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "chip8j-capture");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Emulator thread: takes a copy of the frame shown at <code>cycle</code>, e.g. from
+     * {@link Chip.IOHandler#onUpdateScreen}. Only the last frame of each timer tick is kept.
+     */
+    public void capture(long cycle, long[] lcd, int width, int height){
+        if (closing)
+            return;
+        long tick = cycle * Scheduler.TIMER_HZ / cpuHz;
+        long t = tail.get();
+        if (open && tick != openTick) {
+            open = false;
+            tail.lazySet(++t);
+            LockSupport.unpark(writer);
+        }
+        if (!open) {
+            if (t - head.get() == buffers.length) {
+                if (tick != droppedTick) {
+                    droppedTick = tick;
+                    dropped.incrementAndGet();
+                }
+                return;
+            }
+            open = true;
+            openTick = tick;
+        }
+        int slot = (int)(t % buffers.length);
+        System.arraycopy(lcd, 0, buffers[slot], 0, WORDS);
+        ticks[slot]  = tick;
+        widths[slot] = width;
+    }
+
+    /**
+     * Frames lost because the writer fell behind.
+     */
+    public long dropped(){
+        return dropped.get();
+    }
+
+    /**
+     * Frames left out because they were identical to the previous one.
+     */
+    public long duplicates(){
+        return duplicates.get();
+    }
+
+    /**
+     * Frames written so far.
+     */
+    public long written(){
+        return written.get();
+    }
+
+    /**
+     * Emulator thread: writes the frame pending, if any, and the end of the stream, then closes it.
+     * @throws IOException if any write failed while capturing
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (open) {
+            open = false;
+            tail.lazySet(tail.get() + 1);
+        }
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null)
+                out.writeByte(END);
+        } finally {
+            out.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void drain(){
+        long[] previous = new long[WORDS];
+        int previousWidth = 0;
+        long previousTick = 0;
+        while (true) {
+            long h = head.get();
+            if (h == tail.get()) {
+                if (closing && h == tail.get())
+                    return;
+                LockSupport.park(this);
+                continue;
+            }
+            int slot = (int)(h % buffers.length);
+            long[] frame = buffers[slot];
+            if (widths[slot] == previousWidth && Arrays.equals(frame, previous)) {
+                duplicates.incrementAndGet();
+            } else if (failure == null) {
+                try {
+                    out.writeByte(FRAME);
+                    writeVarint(ticks[slot] - previousTick);
+                    out.writeByte(widths[slot] / 64);
+                    writeDelta(frame, previous);
+                    written.incrementAndGet();
+                } catch (IOException e) {
+                    failure = e;
+                }
+                previousTick  = ticks[slot];
+                previousWidth = widths[slot];
+                System.arraycopy(frame, 0, previous, 0, WORDS);
+            }
+            head.lazySet(h + 1);
+        }
+    }
+
+    private void writeDelta(long[] frame, long[] previous) throws IOException {
+        int at = 0;
+        while (at < WORDS) {
+            int same = at;
+            while (same < WORDS && frame[same] == previous[same])
+                same++;
+            int changed = same;
+            while (changed < WORDS && frame[changed] != previous[changed])
+                changed++;
+            writeVarint(same - at);
+            writeVarint(changed - same);
+            for (int i = same; i < changed; i++)
+                out.writeLong(frame[i] ^ previous[i]);
+            at = changed;
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+}
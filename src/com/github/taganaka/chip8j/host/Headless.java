@@ -0,0 +1,72 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+import com.github.taganaka.chip8j.chip.Tracer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Runs a ROM for a fixed number of cycles without any UI and no throttling.
+ * Usage: Headless &lt;rom&gt; &lt;cycles&gt; [cpuHz]
+ * The basic-block recompiler is enabled with -Dchip8j.recompiler=true,
+ * an instruction trace is streamed to a file with -Dchip8j.trace=&lt;file&gt;,
+ * the frames are captured for {@link FrameExport} with -Dchip8j.capture=&lt;file&gt;,
+ * SUPER-CHIP or XO-CHIP programs need -Dchip8j.instructionSet=SUPER_CHIP|XO_CHIP,
+ * and the quirks profile is picked with -Dchip8j.quirks=LEGACY|COSMAC_VIP|CHIP_48|SUPER_CHIP|XO_CHIP
+ */
+public class Headless {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Headless <rom> <cycles> [cpuHz]");
+            System.exit(1);
+        }
+        long cycles = Long.parseLong(args[1]);
+        int cpuHz = args.length > 2 ? Integer.parseInt(args[2]) : Scheduler.DEFAULT_CPU_HZ;
+
+        HeadlessIOHandler io = new HeadlessIOHandler();
+        InstructionSet instructionSet = InstructionSet.valueOf(System.getProperty("chip8j.instructionSet", "CHIP_8"));
+        String profile = System.getProperty("chip8j.quirks");
+        Quirks quirks = profile != null ? Quirks.valueOf(profile) : Quirks.defaultFor(instructionSet);
+        Chip chip = new Chip(io, System.nanoTime(), instructionSet, quirks);
+        chip.setRecompilerEnabled(Boolean.getBoolean("chip8j.recompiler"));
+        chip.loadROM(args[0]);
+        Scheduler scheduler = new Scheduler(chip, cpuHz, new UnthrottledPacer());
+        ChipMetrics metrics = new ChipMetrics();
+        scheduler.setMetrics(metrics);
+
+        String trace = System.getProperty("chip8j.trace");
+        Tracer tracer = trace != null ? Tracer.stream(Paths.get(trace)) : null;
+        chip.setTracer(tracer);
+
+        String capture = System.getProperty("chip8j.capture");
+        FrameRecorder recorder = capture != null
+                ? new FrameRecorder(Files.newOutputStream(Paths.get(capture)), cpuHz) : null;
+        io.capture(chip, recorder);
+
+        long start = System.nanoTime();
+        try {
+            scheduler.runUntil(cycles);
+        } finally {
+            if (tracer != null)
+                tracer.close();
+            if (recorder != null)
+                recorder.close();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.err.println(String.format("%d cycles in %.3f ms (%.0f cycles/s), %d timer ticks, %d screen updates",
+                chip.getCycles(), elapsed / 1e6, chip.getCycles() * 1e9 / elapsed,
+                scheduler.frames(), io.frames()));
+        System.err.println(metrics.snapshot());
+        if (chip.haltedAt() >= 0)
+            System.err.println(String.format("Halted on an unsupported opcode at 0x%03X", chip.haltedAt()));
+        if (recorder != null)
+            System.err.println(String.format("%d frames captured, %d duplicates, %d dropped",
+                    recorder.written(), recorder.duplicates(), recorder.dropped()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+
+/**
+ * I/O handler for runs without any display or sound device.
+ * Keeps a reference to the last frame published by the core.
+ */
+public class HeadlessIOHandler implements Chip.IOHandler {
+
+    private long[] lcd = new long[0];
+    private long frames;
+    private long sounds;
+    private Chip chip;
+    private FrameRecorder recorder;
+
+    @Override
+    public void onClearScreen() {
+    }
+
+    @Override
+    public void onUpdateScreen(long[] lcd, int x, int y, int width, int height) {
+        this.lcd = lcd;
+        frames++;
+        if (recorder != null)
+            recorder.capture(chip.getCycles(), lcd, chip.screenWidth(), chip.screenHeight());
+    }
+
+    @Override
+    public void onEmitSound() {
+        sounds++;
+    }
+
+    /**
+     * Hands every frame of <code>chip</code>, which this handler belongs to, to <code>recorder</code>.
+     */
+    public void capture(Chip chip, FrameRecorder recorder){
+        this.chip = chip;
+        this.recorder = recorder;
+    }
+
+    public long[] lcd(){
+        return lcd;
+    }
+
+    public long frames(){
+        return frames;
+    }
+
+    public long sounds(){
+        return sounds;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.taganaka.chip8j.host;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Concurrent histogram of durations in nanoseconds, with one bucket per power of two.
+ * Recording never allocates nor blocks; percentiles are reported as the upper bound of
+ * their bucket, so they are accurate within a factor of two.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    public Histogram(){
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records a duration; negative ones count as zero.
+     */
+    public void record(long nanos){
+        if (nanos < 0)
+            nanos = 0;
+        // Bucket b holds [2^(b-1), 2^b), bucket 0 holds zero
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long count(){
+        return count.sum();
+    }
+
+    public long meanNanos(){
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    public long maxNanos(){
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    public long percentileNanos(double percentile){
+        long n = count.sum();
+        if (n == 0)
+            return 0;
+        long rank = (long)Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets[b].sum();
+            if (seen >= rank)
+                return Math.min((1L << b) - 1, maxNanos());
+        }
+        return maxNanos();
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.taganaka.chip8j.host;
+
+/**
+ * Point-in-time view of an {@link EmulatorHost} throughput.
+ */
+public class HostMetrics {
+
+    private final int instances;
+    private final int workers;
+    private final long cycles;
+    private final long elapsedNanos;
+
+    HostMetrics(int instances, int workers, long cycles, long elapsedNanos){
+        this.instances    = instances;
+        this.workers      = workers;
+        this.cycles       = cycles;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Sessions created and not disposed yet.
+     */
+    public int instances(){
+        return instances;
+    }
+
+    public int workers(){
+        return workers;
+    }
+
+    /**
+     * Cycles executed by all the sessions since the host started.
+     */
+    public long cycles(){
+        return cycles;
+    }
+
+    public long elapsedNanos(){
+        return elapsedNanos;
+    }
+
+    public double cyclesPerSecond(){
+        return elapsedNanos == 0 ? 0 : cycles * 1e9 / elapsedNanos;
+    }
+
+    public double cyclesPerSecondPerCore(){
+        return cyclesPerSecond() / workers;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d instances, %d cycles, %.0f cycles/s (%.0f per core)",
+                instances, cycles, cyclesPerSecond(), cyclesPerSecondPerCore());
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+import com.github.taganaka.chip8j.chip.Rom;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Records a session so that {@link Replayer} can reproduce it exactly.
+ *
+ * A recording is the RNG seed, CPU frequency, instruction set and quirks of the run followed by a stream of records,
+ * each stamped with the cycle delta from the previous one: the keypad states the program
+ * observed, and framebuffer hashes taken every few timer ticks as checkpoints.
+ *
+ * <pre>
+ *   int    magic 'C8RP'
+ *   short  format version
+ *   byte   ROM SHA-1[20]
+ *   long   seed
+ *   int    CPU frequency
+ *   byte   instruction set ordinal
+ *   byte   quirks ordinal
+ *   records: byte tag, varint cycle delta, then
+ *     KEYS       varint keys bitmask
+ *     CHECKPOINT long framebuffer hash
+ *     END        long framebuffer hash
+ * </pre>
+ */
+public class InputRecorder implements Chip.InputListener, Scheduler.TickListener, Closeable {
+
+    static final int MAGIC   = 0x43385250; // C8RP
+    static final int VERSION = 1;
+
+    static final int END        = 0;
+    static final int KEYS       = 1;
+    static final int CHECKPOINT = 2;
+
+    public static final int DEFAULT_CHECKPOINT_TICKS = 60;
+
+    private final DataOutputStream out;
+    private final int checkpointTicks;
+
+    // Keypad changes observed since the last timer tick, written out at the next one
+    private long[] pendingCycles = new long[16];
+    private int[] pendingKeys = new int[16];
+    private int pending;
+
+    // Cycle of the last record written
+    private long lastCycle;
+    // Cycle and framebuffer hash at the last timer tick
+    private long tickCycle;
+    private long tickHash;
+    private long ticks;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Writes the recording header; the caller then registers the recorder on both
+     * the chip ({@link Chip#setInputListener}) and its scheduler ({@link Scheduler#setTickListener}).
+     */
+    public InputRecorder(OutputStream stream, byte[] romHash, long seed, int cpuHz, InstructionSet instructionSet,
+                         Quirks quirks, int checkpointTicks) throws IOException {
+        if (romHash.length != 20)
+            throw new IllegalArgumentException("Expected a SHA-1 ROM hash");
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.checkpointTicks = checkpointTicks;
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.write(romHash);
+        out.writeLong(seed);
+        out.writeInt(cpuHz);
+        out.writeByte(instructionSet.ordinal());
+        out.writeByte(quirks.ordinal());
+    }
+
+    /**
+     * Starts recording the given chip, driven by the given scheduler.
+     */
+    public static InputRecorder attach(Chip chip, Scheduler scheduler, String rom, long seed, OutputStream stream)
+            throws IOException {
+        return attach(chip, scheduler, romHash(rom), seed, stream);
+    }
+
+    /**
+     * Starts recording the given chip running the ROM with the given SHA-1.
+     */
+    public static InputRecorder attach(Chip chip, Scheduler scheduler, byte[] romHash, long seed, OutputStream stream)
+            throws IOException {
+        InputRecorder recorder = new InputRecorder(stream, romHash, seed,
+                scheduler.cpuHz(), chip.instructionSet(), chip.quirks(),
+                DEFAULT_CHECKPOINT_TICKS);
+        chip.setInputListener(recorder);
+        scheduler.setTickListener(recorder);
+        return recorder;
+    }
+
+    @Override
+    public synchronized void onKeysObserved(long cycle, int keys) {
+        if (closed || failure != null)
+            return;
+        if (pending == pendingKeys.length) {
+            pendingCycles = Arrays.copyOf(pendingCycles, pending * 2);
+            pendingKeys   = Arrays.copyOf(pendingKeys, pending * 2);
+        }
+        pendingCycles[pending] = cycle;
+        pendingKeys[pending]   = keys;
+        pending++;
+    }
+
+    @Override
+    public synchronized void onTick(Chip chip) {
+        if (closed || failure != null)
+            return;
+        tickCycle = chip.getCycles();
+        tickHash  = chip.frameHash();
+        try {
+            for (int i = 0; i < pending; i++) {
+                record(KEYS, pendingCycles[i]);
+                writeVarint(pendingKeys[i]);
+            }
+            pending = 0;
+            if (++ticks % checkpointTicks == 0) {
+                record(CHECKPOINT, tickCycle);
+                out.writeLong(tickHash);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Ends the recording at the last timer tick; keypad changes observed after it are dropped.
+     * @throws IOException if any write failed while recording
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (failure == null) {
+                record(END, tickCycle);
+                out.writeLong(tickHash);
+            }
+        } finally {
+            out.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    public static byte[] romHash(String rom) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(Rom.load(rom).bytes());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void record(int tag, long cycle) throws IOException {
+        out.writeByte(tag);
+        writeVarint(cycle - lastCycle);
+        lastCycle = cycle;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    private void fail(IOException e){
+        failure = e;
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.taganaka.chip8j.host;
+
+/**
+ * Pacing policy used by {@link Scheduler} to map emulated time onto wall clock time.
+ * The interpreter core never sleeps: every wait happens here.
+ */
+public interface Pacer {
+
+    /**
+     * Called once before the first batch of instructions is executed.
+     */
+    void start();
+
+    /**
+     * Called after each batch of instructions.
+     * @param emulatedNanos emulated time elapsed since {@link #start()}
+     */
+    void pace(long emulatedNanos) throws InterruptedException;
+}
@@ -0,0 +1,37 @@
+package com.github.taganaka.chip8j.host;
+
+/**
+ * Keeps emulated time in step with wall clock time, optionally scaled by a speed factor.
+ * Sleeps only when the emulation is ahead, so a late batch is caught up by the following ones.
+ */
+public class RealTimePacer implements Pacer {
+
+    private final double speed;
+    private long startNanos;
+
+    public RealTimePacer(){
+        this(1.0);
+    }
+
+    /**
+     * @param speed emulated seconds per wall clock second (2.0 runs twice as fast)
+     */
+    public RealTimePacer(double speed){
+        if (speed <= 0)
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        this.speed = speed;
+    }
+
+    @Override
+    public void start() {
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void pace(long emulatedNanos) throws InterruptedException {
+        long target = startNanos + (long)(emulatedNanos / speed);
+        long ahead  = target - System.nanoTime();
+        if (ahead > 0)
+            Thread.sleep(ahead / 1000000, (int)(ahead % 1000000));
+    }
+}
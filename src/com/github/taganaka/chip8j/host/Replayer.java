@@ -0,0 +1,127 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Replays a recording written by {@link InputRecorder} on a headless, unthrottled {@link Chip},
+ * checking the framebuffer hash at every checkpoint.
+ * Usage: Replayer &lt;rom&gt; &lt;recording&gt;
+ */
+public class Replayer {
+
+    /**
+     * Outcome of a replay.
+     */
+    public static class Result {
+        public long cycles;
+        public int checkpoints;
+        public int mismatches;
+        // Cycle of the first checkpoint whose hash differs, -1 if none
+        public long firstMismatch = -1;
+        public long elapsedNanos;
+
+        public boolean passed(){
+            return mismatches == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d cycles in %.3f ms, %d checkpoints, %d mismatches%s",
+                    passed() ? "PASS" : "FAIL", cycles, elapsedNanos / 1e6, checkpoints, mismatches,
+                    firstMismatch < 0 ? "" : " (first at cycle " + firstMismatch + ")");
+        }
+    }
+
+    /**
+     * Replays <code>recording</code> against the ROM at path <code>rom</code>.
+     * @throws IOException if the recording is malformed or was made with another ROM
+     */
+    public static Result replay(String rom, InputStream recording) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(recording));
+        if (in.readInt() != InputRecorder.MAGIC)
+            throw new IOException("Not a recording");
+        int version = in.readShort();
+        if (version != InputRecorder.VERSION)
+            throw new IOException("Unsupported recording version: " + version);
+        byte[] romHash = new byte[20];
+        in.readFully(romHash);
+        if (!Arrays.equals(romHash, InputRecorder.romHash(rom)))
+            throw new IOException("Recording was made with another ROM");
+        long seed = in.readLong();
+        int cpuHz = in.readInt();
+        int set = in.readUnsignedByte();
+        if (set >= InstructionSet.values().length)
+            throw new IOException("Unknown instruction set " + set);
+        InstructionSet instructionSet = InstructionSet.values()[set];
+        int profile = in.readUnsignedByte();
+        if (profile >= Quirks.values().length)
+            throw new IOException("Unknown quirks profile " + profile);
+        Quirks quirks = Quirks.values()[profile];
+
+        Chip chip = new Chip(new HeadlessIOHandler(), seed, instructionSet, quirks);
+        chip.loadROM(rom);
+        Scheduler scheduler = new Scheduler(chip, cpuHz, new UnthrottledPacer());
+
+        Result result = new Result();
+        long start = System.nanoTime();
+        long cycle = 0;
+        while (true) {
+            int tag = in.readByte();
+            cycle += readVarint(in);
+            scheduler.runUntil(cycle);
+            if (tag == InputRecorder.KEYS) {
+                chip.keypad().setMask((int)readVarint(in));
+            } else if (tag == InputRecorder.CHECKPOINT || tag == InputRecorder.END) {
+                long hash = in.readLong();
+                result.checkpoints++;
+                if (chip.frameHash() != hash) {
+                    if (result.mismatches++ == 0)
+                        result.firstMismatch = cycle;
+                }
+                if (tag == InputRecorder.END)
+                    break;
+            } else {
+                throw new IOException("Unknown record " + tag + " at cycle " + cycle);
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.cycles = chip.getCycles();
+        return result;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new EOFException("Malformed varint");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: Replayer <rom> <recording>");
+            System.exit(1);
+        }
+        InputStream recording = new FileInputStream(args[1]);
+        try {
+            Result result = replay(args[0], recording);
+            System.err.println(result);
+            System.exit(result.passed() ? 0 : 2);
+        } finally {
+            recording.close();
+        }
+    }
+}
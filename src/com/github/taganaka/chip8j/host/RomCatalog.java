@@ -0,0 +1,572 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.InstructionSet;
+import com.github.taganaka.chip8j.chip.Quirks;
+import com.github.taganaka.chip8j.chip.Rom;
+import com.github.taganaka.chip8j.chip.RomLoadException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of ROM images keyed by the SHA-1 of their content, persisted in a directory
+ * (by default ~/.chip8j, or -Dchip8j.catalog=&lt;dir&gt;):
+ * <pre>
+ * index            the index, see {@link #save()}
+ * states/&lt;sha1&gt;   the last save state of each ROM
+ * </pre>
+ * Directories are scanned once: a rescan only hashes the files whose size or modification
+ * time changed, and copies of the same image share one entry.
+ * Each entry carries the instruction set its code needs, detected when first indexed,
+ * and the quirks profile and speed it runs with. Those are not detected: they are the
+ * defaults of the instruction set until {@link #configure configured}.
+ * Not thread safe.
+ */
+public final class RomCatalog {
+
+    public static final int MAGIC   = 0x43384958; // "C8IX"
+    public static final int VERSION = 1;
+
+    static final String INDEX_FILE = "index";
+    static final String STATES_DIR = "states";
+    // Where programs are loaded
+    static final int PROGRAM_START = 0x200;
+
+    private final Path directory;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<Path, FileStamp> files = new HashMap<>();
+    private boolean dirty;
+
+    private RomCatalog(Path directory){
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the catalog stored in <code>directory</code>, empty if there's none yet.
+     */
+    public static RomCatalog open(Path directory) throws IOException {
+        RomCatalog catalog = new RomCatalog(directory);
+        Path index = directory.resolve(INDEX_FILE);
+        if (Files.exists(index))
+            catalog.read(index);
+        return catalog;
+    }
+
+    public static RomCatalog openDefault() throws IOException {
+        String dir = System.getProperty("chip8j.catalog");
+        return open(dir != null ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".chip8j"));
+    }
+
+    /**
+     * Indexes every ROM under <code>root</code>, and forgets the files that were
+     * indexed there but are gone. Entries themselves are kept along with their settings
+     * and save states, should the image show up again.
+     * @return the number of files hashed
+     */
+    public int scan(Path root) throws IOException {
+        final Path dir = root.toAbsolutePath().normalize();
+        final Set<Path> seen = new HashSet<>();
+        final int[] hashed = new int[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile() || attrs.size() == 0 || attrs.size() > Rom.MAX_SIZE)
+                    return FileVisitResult.CONTINUE;
+                seen.add(file);
+                FileStamp stamp = files.get(file);
+                if (stamp == null || stamp.size != attrs.size()
+                        || stamp.modified != attrs.lastModifiedTime().toMillis()) {
+                    try {
+                        index(file, attrs);
+                        hashed[0]++;
+                    } catch (RomLoadException e) {
+                        // Unreadable, it is tried again on the next scan
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Iterator<Path> it = files.keySet().iterator();
+        while (it.hasNext()) {
+            Path file = it.next();
+            if (file.startsWith(dir) && !seen.contains(file)) {
+                it.remove();
+                dirty = true;
+            }
+        }
+        relink();
+        return hashed[0];
+    }
+
+    /**
+     * The entry of a single ROM file, indexing it unless it is unchanged since last seen.
+     */
+    public Entry add(Path rom) throws IOException {
+        Path file = rom.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        FileStamp stamp = files.get(file);
+        if (stamp != null && stamp.size == attrs.size() && stamp.modified == attrs.lastModifiedTime().toMillis()) {
+            Entry entry = entries.get(stamp.hash);
+            entry.path = file;
+            return entry;
+        }
+        if (attrs.size() > Rom.MAX_SIZE)
+            throw new IOException(file + " is too large for a ROM: " + attrs.size() + " bytes");
+        return index(file, attrs);
+    }
+
+    private Entry index(Path file, BasicFileAttributes attrs) throws IOException {
+        Rom rom = Rom.load(file);
+        byte[] image = rom.bytes();
+        byte[] digest = sha1(image);
+        String hash = hex(digest);
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            InstructionSet set = requiredSet(image);
+            entry = new Entry(digest, hash, file.getFileName().toString(), set, Quirks.defaultFor(set),
+                    defaultCpuHz(set), false, 0);
+            entries.put(hash, entry);
+        }
+        entry.path = file;
+        entry.rom  = new SoftReference<>(rom);
+        files.put(file, new FileStamp(file, image.length, attrs.lastModifiedTime().toMillis(), hash));
+        dirty = true;
+        return entry;
+    }
+
+    // Points every entry to one of the files still holding its image, if any
+    private void relink(){
+        Map<String, Path> holders = new HashMap<>();
+        for (FileStamp stamp : files.values())
+            holders.put(stamp.hash, stamp.path);
+        for (Entry entry : entries.values()) {
+            FileStamp stamp = entry.path != null ? files.get(entry.path) : null;
+            if (stamp == null || !stamp.hash.equals(entry.hash))
+                entry.path = holders.get(entry.hash);
+        }
+    }
+
+    /**
+     * @param hash SHA-1 of the image, hex encoded
+     * @return the entry, or null if the image was never indexed
+     */
+    public Entry lookup(String hash){
+        return entries.get(hash.toLowerCase());
+    }
+
+    /**
+     * Entries with at least one file on disk, by name.
+     */
+    public List<Entry> entries(){
+        List<Entry> list = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.path != null)
+                list.add(entry);
+        }
+        Collections.sort(list, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                int c = a.name.compareToIgnoreCase(b.name);
+                return c != 0 ? c : a.hash.compareTo(b.hash);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * The image of an entry, kept in memory while there is room for it
+     * so that every machine loading the entry shares it.
+     * @throws IOException if the file can't be read or no longer holds the image
+     */
+    public Rom rom(Entry entry) throws IOException {
+        Rom rom = entry.rom != null ? entry.rom.get() : null;
+        if (rom != null)
+            return rom;
+        if (entry.path == null)
+            throw new NoSuchFileException(entry.name);
+        rom = Rom.load(entry.path);
+        if (!Arrays.equals(sha1(rom.bytes()), entry.digest))
+            throw new RomLoadException(entry.path + " changed since it was indexed, scan it again");
+        entry.rom = new SoftReference<>(rom);
+        return rom;
+    }
+
+    /**
+     * Overrides the quirks profile and the speed an entry runs with.
+     * Rescans don't reset them.
+     */
+    public void configure(Entry entry, Quirks quirks, int cpuHz){
+        if (cpuHz <= 0)
+            throw new IllegalArgumentException("CPU frequency must be positive: " + cpuHz);
+        entry.quirks = quirks;
+        entry.cpuHz  = cpuHz;
+        entry.configured = true;
+        dirty = true;
+    }
+
+    /**
+     * Keeps <code>state</code> as the last save state of the entry, replacing the previous one.
+     */
+    public void storeState(Entry entry, byte[] state) throws IOException {
+        Path states = directory.resolve(STATES_DIR);
+        Files.createDirectories(states);
+        Path tmp = states.resolve(entry.hash + ".tmp");
+        Files.write(tmp, state);
+        Files.move(tmp, states.resolve(entry.hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entry.stateSaved = System.currentTimeMillis();
+        dirty = true;
+    }
+
+    /**
+     * @return the last save state of the entry, or null if there's none
+     */
+    public byte[] loadState(Entry entry) throws IOException {
+        if (entry.stateSaved == 0)
+            return null;
+        try {
+            return Files.readAllBytes(directory.resolve(STATES_DIR).resolve(entry.hash));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index if anything changed since it was read, replacing the file atomically.
+     * The format, big endian:
+     * <pre>
+     * int    magic "C8IX"
+     * short  version
+     * int    entry count, then for each entry:
+     *        byte[20] SHA-1, UTF name, byte instruction set, byte quirks,
+     *        int instructions per second, boolean configured, long save state time (0 if none)
+     * int    file count, then for each file:
+     *        UTF path, long size, long modification time, byte[20] SHA-1
+     * </pre>
+     */
+    public void save() throws IOException {
+        if (!dirty)
+            return;
+        Files.createDirectories(directory);
+        Path tmp = directory.resolve(INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.write(entry.digest);
+                out.writeUTF(entry.name);
+                out.writeByte(entry.instructionSet.ordinal());
+                out.writeByte(entry.quirks.ordinal());
+                out.writeInt(entry.cpuHz);
+                out.writeBoolean(entry.configured);
+                out.writeLong(entry.stateSaved);
+            }
+            out.writeInt(files.size());
+            for (FileStamp stamp : files.values()) {
+                out.writeUTF(stamp.path.toString());
+                out.writeLong(stamp.size);
+                out.writeLong(stamp.modified);
+                out.write(entries.get(stamp.hash).digest);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private void read(Path index) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a ROM catalog index: " + index);
+            int version = in.readUnsignedShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported ROM catalog version " + version);
+            for (int n = in.readInt(); n > 0; n--) {
+                byte[] digest = new byte[20];
+                in.readFully(digest);
+                String name = in.readUTF();
+                InstructionSet set = InstructionSet.values()[in.readUnsignedByte()];
+                Quirks quirks = Quirks.values()[in.readUnsignedByte()];
+                int cpuHz = in.readInt();
+                boolean configured = in.readBoolean();
+                long stateSaved = in.readLong();
+                Entry entry = new Entry(digest, hex(digest), name, set, quirks, cpuHz, configured, stateSaved);
+                entries.put(entry.hash, entry);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                Path path = Paths.get(in.readUTF());
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] digest = new byte[20];
+                in.readFully(digest);
+                String hash = hex(digest);
+                if (entries.containsKey(hash))
+                    files.put(path, new FileStamp(path, size, modified, hash));
+            }
+        } finally {
+            in.close();
+        }
+        relink();
+    }
+
+    /**
+     * The oldest instruction set able to run the image: the code reachable from the
+     * entry point is followed through jumps, calls and skips, so that sprite data
+     * looking like SUPER-CHIP or XO-CHIP opcodes doesn't count.
+     * Images too large for 4KB of memory need XO-CHIP anyway.
+     */
+    static InstructionSet requiredSet(byte[] image){
+        if (image.length > InstructionSet.CHIP_8.memorySize() - PROGRAM_START)
+            return InstructionSet.XO_CHIP;
+        InstructionSet required = InstructionSet.CHIP_8;
+        boolean[] visited = new boolean[image.length];
+        int[] pending = new int[16];
+        int count = 0;
+        pending[count++] = PROGRAM_START;
+        while (count > 0) {
+            int pc = pending[--count];
+            while (true) {
+                int off = pc - PROGRAM_START;
+                if (off < 0 || off + 1 >= image.length || visited[off])
+                    break;
+                visited[off] = true;
+                int opcode = ((image[off] & 0xFF) << 8) | (image[off + 1] & 0xFF);
+                int next = pc + 2;
+                InstructionSet needs = InstructionSet.CHIP_8;
+                boolean skip = false;
+                int target = -1;
+                switch (opcode & 0xF000) {
+                    case 0x0000:
+                        if (opcode == 0x00EE || opcode == 0x00FD)
+                            next = -1;
+                        if ((opcode & 0xFFF0) == 0x00C0 && opcode != 0x00C0 || opcode >= 0x00FB && opcode <= 0x00FF)
+                            needs = InstructionSet.SUPER_CHIP;
+                        else if ((opcode & 0xFFF0) == 0x00D0)
+                            needs = InstructionSet.XO_CHIP;
+                        break;
+                    case 0x1000:
+                        next = opcode & 0x0FFF;
+                        break;
+                    case 0x2000:
+                        target = opcode & 0x0FFF;
+                        break;
+                    case 0x3000:
+                    case 0x4000:
+                    case 0x9000:
+                        skip = true;
+                        break;
+                    case 0x5000:
+                        if ((opcode & 0x000F) == 0x0002 || (opcode & 0x000F) == 0x0003)
+                            needs = InstructionSet.XO_CHIP;
+                        else
+                            skip = true;
+                        break;
+                    case 0xB000:
+                        // Computed jump: only the base of the table is known
+                        next = opcode & 0x0FFF;
+                        break;
+                    case 0xD000:
+                        if ((opcode & 0x000F) == 0)
+                            needs = InstructionSet.SUPER_CHIP;
+                        break;
+                    case 0xE000:
+                        skip = (opcode & 0x00FF) == 0x009E || (opcode & 0x00FF) == 0x00A1;
+                        break;
+                    case 0xF000:
+                        if (opcode == 0xF000) {
+                            needs = InstructionSet.XO_CHIP;
+                            next = pc + 4;
+                        } else if ((opcode & 0xF0FF) == 0xF001 || opcode == 0xF002 || (opcode & 0x00FF) == 0x003A) {
+                            needs = InstructionSet.XO_CHIP;
+                        } else if ((opcode & 0x00FF) == 0x0030 || (opcode & 0x00FF) == 0x0075
+                                || (opcode & 0x00FF) == 0x0085) {
+                            needs = InstructionSet.SUPER_CHIP;
+                        }
+                        break;
+                }
+                if (needs.ordinal() > required.ordinal())
+                    required = needs;
+                if (skip) {
+                    // Skipping an F000 NNNN jumps 4 bytes ahead under XO-CHIP
+                    int skipped = next - PROGRAM_START;
+                    boolean longSkip = skipped + 1 < image.length
+                            && image[skipped] == (byte)0xF0 && image[skipped + 1] == 0;
+                    target = next + (longSkip ? 4 : 2);
+                }
+                if (target >= 0) {
+                    if (count == pending.length)
+                        pending = Arrays.copyOf(pending, count * 2);
+                    pending[count++] = target;
+                }
+                if (next < 0)
+                    break;
+                pc = next;
+            }
+        }
+        return required;
+    }
+
+    /**
+     * Instructions per second programs of the given set are usually written for.
+     */
+    static int defaultCpuHz(InstructionSet set){
+        switch (set) {
+            case SUPER_CHIP: return 30 * Scheduler.TIMER_HZ;
+            case XO_CHIP:    return 1000 * Scheduler.TIMER_HZ;
+            default:         return Scheduler.DEFAULT_CPU_HZ;
+        }
+    }
+
+    static byte[] sha1(byte[] image){
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(image);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes){
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    /**
+     * A ROM image of the catalog, found at {@link #path()} when last scanned.
+     */
+    public static final class Entry {
+        private final byte[] digest;
+        private final String hash;
+        private final String name;
+        private final InstructionSet instructionSet;
+        private Quirks quirks;
+        private int cpuHz;
+        private boolean configured;
+        private long stateSaved;
+        private Path path;
+        private SoftReference<Rom> rom;
+
+        private Entry(byte[] digest, String hash, String name, InstructionSet instructionSet, Quirks quirks,
+                      int cpuHz, boolean configured, long stateSaved){
+            this.digest         = digest;
+            this.hash           = hash;
+            this.name           = name;
+            this.instructionSet = instructionSet;
+            this.quirks         = quirks;
+            this.cpuHz          = cpuHz;
+            this.configured     = configured;
+            this.stateSaved     = stateSaved;
+        }
+
+        /**
+         * SHA-1 of the image, hex encoded.
+         */
+        public String hash(){
+            return hash;
+        }
+
+        public byte[] digest(){
+            return digest.clone();
+        }
+
+        /**
+         * File name the image was first indexed under.
+         */
+        public String name(){
+            return name;
+        }
+
+        public Path path(){
+            return path;
+        }
+
+        public InstructionSet instructionSet(){
+            return instructionSet;
+        }
+
+        /**
+         * The quirks profile, the default of the instruction set unless configured.
+         */
+        public Quirks quirks(){
+            return quirks;
+        }
+
+        /**
+         * Instructions per second.
+         */
+        public int cpuHz(){
+            return cpuHz;
+        }
+
+        /**
+         * Whether quirks and speed were set with {@link RomCatalog#configure} rather than left to the instruction set defaults.
+         */
+        public boolean configured(){
+            return configured;
+        }
+
+        public boolean hasState(){
+            return stateSaved != 0;
+        }
+
+        /**
+         * When the last save state was stored, in milliseconds since the epoch, 0 if never.
+         */
+        public long stateSavedAt(){
+            return stateSaved;
+        }
+
+        @Override
+        public String toString(){
+            return name + " (" + instructionSet + ")";
+        }
+    }
+
+    private static final class FileStamp {
+        final Path path;
+        final long size;
+        final long modified;
+        final String hash;
+
+        FileStamp(Path path, long size, long modified, String hash){
+            this.path     = path;
+            this.size     = size;
+            this.modified = modified;
+            this.hash     = hash;
+        }
+    }
+}
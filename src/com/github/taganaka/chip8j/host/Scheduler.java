@@ -0,0 +1,191 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+
+/**
+ * Drives a {@link Chip} at a configurable CPU frequency while ticking the delay and
+ * sound timers at a fixed 60Hz of emulated time.
+ *
+ * Time is measured in executed cycles, so timers keep the same speed whatever the
+ * CPU frequency and whatever the host does. When running, the scheduler wakes up
+ * once per timer tick and executes the whole batch of cycles due for that frame,
+ * delegating every wait to a {@link Pacer}.
+ */
+public class Scheduler implements Runnable {
+
+    public static final int TIMER_HZ = 60;
+    public static final int DEFAULT_CPU_HZ = 500;
+
+    private final Chip chip;
+    private final int cpuHz;
+    private final Pacer pacer;
+
+    // Number of timer ticks issued so far
+    private long frames;
+
+    private TickListener tickListener;
+    private ChipMetrics metrics;
+    private AudioEngine audio;
+
+    private volatile boolean running;
+
+    public Scheduler(Chip chip, Pacer pacer){
+        this(chip, DEFAULT_CPU_HZ, pacer);
+    }
+
+    /**
+     * @param cpuHz emulated instructions per second
+     */
+    public Scheduler(Chip chip, int cpuHz, Pacer pacer){
+        if (cpuHz <= 0)
+            throw new IllegalArgumentException("CPU frequency must be positive: " + cpuHz);
+        this.chip   = chip;
+        this.cpuHz  = cpuHz;
+        this.pacer  = pacer;
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        pacer.start();
+        long startFrame = frames;
+        long startNanos = System.nanoTime();
+        try {
+            while (running) {
+                long frameStart = System.nanoTime();
+                runFrame();
+                long emulated = (frames - startFrame) * 1000000000L / TIMER_HZ;
+                if (metrics != null) {
+                    long now = System.nanoTime();
+                    metrics.recordFrame(now - frameStart, now - startNanos - emulated);
+                }
+                pacer.pace(emulated);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void stop(){
+        running = false;
+    }
+
+    /**
+     * Executes all the cycles up to the next timer tick, then ticks the timers.
+     */
+    public void runFrame(){
+        runUntil(nextTick());
+    }
+
+    /**
+     * Executes <code>count</code> cycles, ticking the timers whenever a 60Hz boundary is crossed.
+     */
+    public void runCycles(long count){
+        runUntil(chip.getCycles() + count);
+    }
+
+    /**
+     * Number of timer ticks issued by this scheduler.
+     */
+    public long frames(){
+        return frames;
+    }
+
+    /**
+     * Executes cycles until the chip cycle counter reaches <code>cycle</code>,
+     * ticking the timers whenever a 60Hz boundary is crossed. Without a tick listener,
+     * a program {@link Chip#skipBlocked(long) blocked} with both timers stopped is moved
+     * straight to <code>cycle</code>.
+     */
+    public void runUntil(long cycle){
+        while (chip.getCycles() < cycle) {
+            if (tickListener == null && chip.delayTimer() == 0 && chip.soundTimer() == 0) {
+                // Blocked with both timers stopped: the ticks to come would leave everything as it is
+                long from = chip.getCycles();
+                if (chip.skipBlocked(cycle)) {
+                    skipTicks(from);
+                    return;
+                }
+            }
+            long tick = nextTick();
+            chip.runUntil(Math.min(tick, cycle));
+            if (chip.getCycles() >= tick) {
+                // Before the decrement, so that a sound timer set to 1 is heard for its tick
+                if (audio != null)
+                    audio.update(chip);
+                chip.tickTimers();
+                frames++;
+                if (metrics != null)
+                    metrics.flush(chip.counters());
+                if (tickListener != null)
+                    tickListener.onTick(chip);
+            }
+        }
+    }
+
+    public int cpuHz(){
+        return cpuHz;
+    }
+
+    public void setTickListener(TickListener listener){
+        tickListener = listener;
+    }
+
+    /**
+     * Publishes the chip counters to <code>metrics</code> at every timer tick, and
+     * the frame times and timer drift while {@link #run() running}.
+     */
+    public void setMetrics(ChipMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hands the sound state to <code>audio</code> at every timer tick, before the timers are decremented.
+     */
+    public void setAudio(AudioEngine audio){
+        this.audio = audio;
+    }
+
+    /**
+     * Issues the ticks passed over since cycle <code>from</code> at once: counted, with
+     * the audio and metrics brought up to date.
+     */
+    private void skipTicks(long from){
+        long skipped = ticksUpTo(chip.getCycles()) - ticksUpTo(from);
+        if (skipped == 0)
+            return;
+        frames += skipped;
+        if (audio != null)
+            audio.update(chip);
+        if (metrics != null)
+            metrics.flush(chip.counters());
+    }
+
+    // Number of ticks due on cycles 1 to cycle, see nextTick(): there is one per cycle below 60Hz
+    private long ticksUpTo(long cycle){
+        if (cpuHz < TIMER_HZ)
+            return cycle;
+        long next = cycle + 1;
+        return next / cpuHz * TIMER_HZ + Math.floorDiv(next % cpuHz * TIMER_HZ - 1, cpuHz);
+    }
+
+    /**
+     * Cycle at which the next timer tick is due.
+     * Tick j falls on cycle j * cpuHz / 60 of the chip counter, so fractional cycles per
+     * frame don't drift and the phase survives restoring a save state.
+     */
+    private long nextTick(){
+        long cycles = chip.getCycles();
+        long tick = cycles * TIMER_HZ / cpuHz;
+        while (tick * cpuHz / TIMER_HZ <= cycles)
+            tick++;
+        return tick * cpuHz / TIMER_HZ;
+    }
+
+    /**
+     * Notified on the emulator thread after each 60Hz timer tick.
+     */
+    public interface TickListener {
+        void onTick(Chip chip);
+    }
+}
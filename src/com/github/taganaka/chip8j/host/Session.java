@@ -0,0 +1,184 @@
+package com.github.taganaka.chip8j.host;
+
+import com.github.taganaka.chip8j.chip.Chip;
+
+/**
+ * One isolated {@link Chip} instance living in an {@link EmulatorHost}.
+ *
+ * A running session is executed by the host workers in slices of at most
+ * <code>sliceCycles</code> cycles, until it is paused, disposed, fails, or
+ * reaches its cycle limit. A paused session can be stepped by the caller.
+ *
+ * A session whose program waits for a key (FX0A) with none pressed, or spins in a loop
+ * nothing but a key can end (see {@link Chip#waitingForKey()}), only has its timers left
+ * to run down. Once they have, its clock moves straight to the cycle limit and it finishes;
+ * without a limit (<code>Long.MAX_VALUE</code>) it is WAITING instead: out of the run queue
+ * until the next key event. A loop nothing can end ({@link Chip#idleForever()}) finishes
+ * the session the same way, limit or not, and an unsupported opcode fails it.
+ */
+public class Session {
+
+    public enum State { PAUSED, RUNNING, WAITING, FINISHED, FAILED, DISPOSED }
+
+    private final EmulatorHost host;
+    private final int id;
+    private final Chip chip;
+    private final Scheduler scheduler;
+    private final int sliceCycles;
+    private final long cycleLimit;
+
+    // Guarded by this
+    private State state = State.PAUSED;
+    private boolean queued;
+    private Throwable failure;
+
+    Session(EmulatorHost host, int id, Chip chip, int cpuHz, int sliceCycles, long cycleLimit){
+        this.host        = host;
+        this.id          = id;
+        this.chip        = chip;
+        this.scheduler   = new Scheduler(chip, cpuHz, new UnthrottledPacer());
+        scheduler.setMetrics(host.chipMetrics());
+        this.sliceCycles = sliceCycles;
+        this.cycleLimit  = cycleLimit;
+        chip.keypad().setWakeup(new Runnable() {
+            @Override
+            public void run() {
+                wake();
+            }
+        });
+    }
+
+    public int id(){
+        return id;
+    }
+
+    public Chip chip(){
+        return chip;
+    }
+
+    public synchronized State state(){
+        return state;
+    }
+
+    /**
+     * The error that stopped the session, if its state is FAILED.
+     */
+    public synchronized Throwable failure(){
+        return failure;
+    }
+
+    /**
+     * Hands the session over to the host workers.
+     */
+    public void resume(){
+        synchronized (this) {
+            if (state != State.PAUSED)
+                return;
+            state = State.RUNNING;
+            if (queued)
+                return;
+            queued = true;
+        }
+        host.enqueue(this);
+    }
+
+    /**
+     * Stops scheduling the session. A slice in progress completes first.
+     */
+    public synchronized void pause(){
+        if (state == State.RUNNING || state == State.WAITING)
+            state = State.PAUSED;
+    }
+
+    /**
+     * Executes <code>cycles</code> cycles on the calling thread. The session must be paused.
+     */
+    public void step(long cycles){
+        synchronized (this) {
+            if (state != State.PAUSED)
+                throw new IllegalStateException("Session " + id + " is " + state);
+        }
+        execute(cycles);
+    }
+
+    /**
+     * Stops the session for good and releases it from the host.
+     */
+    public void dispose(){
+        synchronized (this) {
+            if (state == State.DISPOSED)
+                return;
+            state = State.DISPOSED;
+        }
+        host.release(this);
+    }
+
+    /**
+     * Runs one slice on a host worker, then tells whether the session must be queued again.
+     */
+    boolean runSlice(){
+        synchronized (this) {
+            if (state != State.RUNNING) {
+                queued = false;
+                return false;
+            }
+        }
+
+        long remaining = cycleLimit - chip.getCycles();
+        execute(Math.min(sliceCycles, remaining));
+        // The scheduler skips the wait in one go
+        if (cycleLimit != Long.MAX_VALUE && (chip.waitingForKey() || chip.idleForever()) && timersStopped())
+            execute(cycleLimit - chip.getCycles());
+
+        synchronized (this) {
+            if (state != State.RUNNING) {
+                queued = false;
+                return false;
+            }
+            if (chip.haltedAt() >= 0) {
+                failure = new IllegalStateException(String.format("Unsupported opcode at 0x%03X", chip.haltedAt()));
+                state = State.FAILED;
+            } else if (chip.getCycles() >= cycleLimit || chip.idleForever() && timersStopped()) {
+                state = State.FINISHED;
+            } else if (chip.waitingForKey() && timersStopped()) {
+                // A key event after this check finds the session waiting and wakes it
+                state = State.WAITING;
+            }
+            queued = state == State.RUNNING;
+            return queued;
+        }
+    }
+
+    private boolean timersStopped(){
+        return chip.delayTimer() == 0 && chip.soundTimer() == 0;
+    }
+
+    // Input thread: queues a waiting session again
+    private void wake(){
+        synchronized (this) {
+            if (state != State.WAITING)
+                return;
+            state = State.RUNNING;
+            if (queued)
+                return;
+            queued = true;
+        }
+        host.enqueue(this);
+    }
+
+    private void execute(long cycles){
+        synchronized (chip) {
+            long before = chip.getCycles();
+            try {
+                scheduler.runCycles(cycles);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure = e;
+                    state = State.FAILED;
+                }
+            } finally {
+                host.account(chip.getCycles() - before);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.taganaka.chip8j.host;
+
+/**
+ * Runs as fast as the host allows: never waits.
+ */
+public class UnthrottledPacer implements Pacer {
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void pace(long emulatedNanos) {
+    }
+}